@@ -51,6 +51,8 @@ import static java.util.Objects.requireNonNull;
  */
 public final class TestContext {
   private static final Pattern LINE_ENDING = Pattern.compile("\r\n");
+  // the property read by net.kyori.mammoth.ConfigurationCacheChecker, which this module does not depend on; its tests check the two match
+  private static final String CONFIGURATION_CACHE_CHECK = "net.kyori.mammoth.configurationCacheCheck";
 
   private final Class<?> resourceBase;
   private final String testName;
@@ -238,6 +240,42 @@ public final class TestContext {
     return this.runner(extraArgs).build();
   }
 
+  /**
+   * Run a build twice with the configuration cache enabled, asserting that the second run reuses the cache entry
+   * stored by the first.
+   *
+   * <p>Both runs also enable mammoth's own configuration cache check in {@code fail} mode, so tasks registered by
+   * {@code ProjectPlugin} implementations that capture a {@code Project} or {@code Gradle} fail with the line of
+   * plugin code that registered them.</p>
+   *
+   * @param extraArgs the extra arguments to provide, such as the tasks to run
+   * @return the result of the second build
+   * @since 1.5.0
+   */
+  public @NotNull BuildResult assertConfigurationCacheReused(final @NotNull String@NotNull... extraArgs) {
+    final String[] args = new String[extraArgs.length + 2];
+    args[0] = "--configuration-cache";
+    args[1] = "-P" + CONFIGURATION_CACHE_CHECK + "=fail";
+    System.arraycopy(extraArgs, 0, args, 2, extraArgs.length);
+
+    final BuildResult stored = this.build(args);
+    Assertions.assertFalse(
+      TestContext.reusedConfigurationCache(stored.getOutput()),
+      () -> "Expected the first build to store a new configuration cache entry, but it was reused:\n" + stored.getOutput()
+    );
+    final BuildResult reused = this.build(args);
+    Assertions.assertTrue(
+      TestContext.reusedConfigurationCache(reused.getOutput()),
+      () -> "Expected the second build to reuse the configuration cache entry:\n" + reused.getOutput()
+    );
+    return reused;
+  }
+
+  private static boolean reusedConfigurationCache(final String output) {
+    // the message changed in Gradle 8
+    return output.contains("Configuration cache entry reused") || output.contains("Reusing configuration cache");
+  }
+
   static String normalizeLineEndings(final String input) {
     return TestContext.LINE_ENDING.matcher(input).replaceAll("\n");
   }
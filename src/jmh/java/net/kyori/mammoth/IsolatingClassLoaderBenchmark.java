@@ -0,0 +1,164 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the cost of delegating parent-provided classes through a deep chain of isolating loaders.
+ *
+ * <p>Run with {@code ./gradlew jmh}; the {@code gc} profiler reports {@code gc.alloc.rate.norm}, the bytes allocated
+ * per operation, which shows the exceptions no longer being created on the {@code legacy} implementation's path.</p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IsolatingClassLoaderBenchmark {
+  private static final String[] PARENT_CLASSES = {
+    "java.lang.String",
+    "java.util.ArrayList",
+    "java.util.concurrent.ConcurrentHashMap",
+    "java.io.File",
+    "org.openjdk.jmh.annotations.Benchmark",
+  };
+
+  @Param({"1", "4", "16"})
+  public int depth;
+
+  @Param({"legacy", "probing", "indexed"})
+  public String implementation;
+
+  private final List<URLClassLoader> chain = new ArrayList<>();
+  private ClassLoader top;
+
+  @Setup
+  public void setUp() throws MalformedURLException {
+    final URL[] classpath = IsolatingClassLoaderBenchmark.toolClasspath();
+    ClassLoader parent = IsolatingClassLoaderBenchmark.class.getClassLoader();
+    for (int i = 0; i < this.depth; i++) {
+      final URLClassLoader loader;
+      switch (this.implementation) {
+        case "legacy":
+          loader = new LegacyIsolatingClassLoader(classpath, parent);
+          break;
+        case "probing":
+          loader = IsolatingClassLoader.isolatingClassLoader(parent, classpath);
+          break;
+        case "indexed":
+          loader = IsolatingClassLoader.builder().parent(parent).classpath(classpath).indexed(true).build();
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown implementation " + this.implementation);
+      }
+      this.chain.add(loader);
+      parent = loader;
+    }
+    this.top = parent;
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    for (final URLClassLoader loader : this.chain) {
+      loader.close();
+    }
+    this.chain.clear();
+  }
+
+  @Benchmark
+  public void loadParentClasses(final Blackhole bh) throws ClassNotFoundException {
+    for (final String name : PARENT_CLASSES) {
+      bh.consume(this.top.loadClass(name));
+    }
+  }
+
+  // a handful of real jars that do not contain any of the classes we look up
+  private static URL[] toolClasspath() throws MalformedURLException {
+    final List<URL> urls = new ArrayList<>();
+    for (final String element : System.getProperty("java.class.path").split(File.pathSeparator)) {
+      if (element.endsWith(".jar") && !element.contains("jmh-core")) {
+        urls.add(new File(element).toURI().toURL());
+      }
+    }
+    return urls.toArray(new URL[0]);
+  }
+
+  /**
+   * The child-first lookup used before non-throwing probes were introduced, kept as a baseline.
+   */
+  static final class LegacyIsolatingClassLoader extends URLClassLoader {
+    static {
+      ClassLoader.registerAsParallelCapable();
+    }
+
+    LegacyIsolatingClassLoader(final URL[] urls, final ClassLoader parent) {
+      super(urls, parent);
+    }
+
+    @Override
+    protected Class<?> loadClass(final String name, final boolean resolve) throws ClassNotFoundException {
+      synchronized (this.getClassLoadingLock(name)) {
+        Class<?> result = this.findLoadedClass(name);
+        if (result == null) {
+          try {
+            result = this.findClass(name);
+          } catch (final ClassNotFoundException ex) {
+            // ignore, delegate to parent
+          }
+        }
+
+        if (result == null) {
+          return super.loadClass(name, resolve);
+        }
+
+        if (resolve) {
+          this.resolveClass(result);
+        }
+        return result;
+      }
+    }
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A thread-safe cache holding at most a fixed number of values, evicting the least recently used value beyond that.
+ *
+ * <p>Each value is computed at most once at a time: threads asking for a value that is already being computed wait for
+ * that computation rather than starting another.</p>
+ *
+ * <p>Evicted values are only dropped from the cache, never closed, as callers may still be using them. Values that are
+ * {@link AutoCloseable} are closed when the cache is {@link #clear() cleared}, which for build-scoped caches happens
+ * once the build has finished.</p>
+ *
+ * <p>Build-scoped caches can be obtained from {@link BuildServices#sharedCache(org.gradle.api.invocation.Gradle, String, int)}.</p>
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ * @since 1.5.0
+ */
+public final class BoundedCache<K, V> {
+  private static final Logger LOGGER = Logging.getLogger(BoundedCache.class);
+
+  private final int maximumSize;
+  private final Map<K, CompletableFuture<V>> values = new LinkedHashMap<>(16, 0.75f, true); // guarded by this
+
+  BoundedCache(final int maximumSize) {
+    if (maximumSize < 1) {
+      throw new IllegalArgumentException("maximumSize must be at least 1, but was " + maximumSize);
+    }
+    this.maximumSize = maximumSize;
+  }
+
+  /**
+   * Get the value for a key, computing it if it is not present.
+   *
+   * <p>The loader must not ask this cache for the same key, as it would wait on its own computation.</p>
+   *
+   * @param key the key
+   * @param loader a function computing the value for a key, which must not return {@code null}
+   * @return the value
+   * @since 1.5.0
+   */
+  public @NotNull V get(final @NotNull K key, final @NotNull Function<? super K, ? extends V> loader) {
+    requireNonNull(key, "key");
+    requireNonNull(loader, "loader");
+    final CompletableFuture<V> future;
+    final boolean owner;
+    synchronized (this) {
+      final @Nullable CompletableFuture<V> existing = this.values.get(key);
+      if (existing != null) {
+        future = existing;
+        owner = false;
+      } else {
+        future = new CompletableFuture<>();
+        owner = true;
+        this.values.put(key, future);
+        this.evict();
+      }
+    }
+
+    if (owner) {
+      try {
+        future.complete(requireNonNull(loader.apply(key), "loader returned null"));
+      } catch (final RuntimeException | Error ex) {
+        synchronized (this) {
+          this.values.remove(key, future);
+        }
+        future.completeExceptionally(ex);
+        throw ex;
+      }
+    }
+
+    try {
+      return future.join();
+    } catch (final CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      } else if (ex.getCause() instanceof Error) {
+        throw (Error) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  /**
+   * Get the value for a key, if it is present and has finished computing.
+   *
+   * @param key the key
+   * @return the value, or {@code null} if it is not present
+   * @since 1.5.0
+   */
+  public @Nullable V getIfPresent(final @NotNull K key) {
+    final @Nullable CompletableFuture<V> future;
+    synchronized (this) {
+      future = this.values.get(requireNonNull(key, "key"));
+    }
+    return future == null || !future.isDone() || future.isCompletedExceptionally() ? null : future.join();
+  }
+
+  /**
+   * Remove the value for a key, without closing it.
+   *
+   * @param key the key
+   * @since 1.5.0
+   */
+  public synchronized void invalidate(final @NotNull K key) {
+    this.values.remove(requireNonNull(key, "key"));
+  }
+
+  /**
+   * Remove every value, closing those that are {@link AutoCloseable}.
+   *
+   * <p>This should only be called once no caller is using the values any more. Values still being computed are not
+   * closed, as they belong to the thread computing them.</p>
+   *
+   * @since 1.5.0
+   */
+  public void clear() {
+    final List<CompletableFuture<V>> removed;
+    synchronized (this) {
+      removed = new ArrayList<>(this.values.values());
+      this.values.clear();
+    }
+    for (final CompletableFuture<V> future : removed) {
+      if (future.isDone() && !future.isCompletedExceptionally()) {
+        BoundedCache.close(future.join());
+      }
+    }
+  }
+
+  /**
+   * Get the number of values in this cache, including those still being computed.
+   *
+   * @return the number of values
+   * @since 1.5.0
+   */
+  public synchronized int size() {
+    return this.values.size();
+  }
+
+  // must hold lock on this
+  private void evict() {
+    for (final Iterator<CompletableFuture<V>> it = this.values.values().iterator(); it.hasNext() && this.values.size() > this.maximumSize;) {
+      it.next();
+      it.remove();
+    }
+  }
+
+  private static void close(final Object value) {
+    if (value instanceof AutoCloseable) {
+      try {
+        ((AutoCloseable) value).close();
+      } catch (final Exception ex) {
+        LOGGER.warn("Failed to close cache value {}", value, ex);
+      }
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import org.gradle.api.Action;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.gradle.api.services.BuildServiceSpec;
+import org.jetbrains.annotations.NotNull;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Helpers for working with build services.
+ *
+ * <p>Build services are the supported way to share state between the projects of a build. Unlike static fields,
+ * their state does not leak into later builds run by the same daemon.</p>
+ *
+ * @since 1.5.0
+ */
+public final class BuildServices {
+  private BuildServices() {
+  }
+
+  /**
+   * Register a build service, or get the existing registration, limiting how many tasks may use it at once.
+   *
+   * @param <S> the service type
+   * @param <P> the service parameters type
+   * @param gradle the build to register with
+   * @param name the service name
+   * @param type the service type
+   * @param maxParallelUsages the maximum number of tasks that may use the service at once
+   * @param configure an action to configure the service parameters
+   * @return a provider for the service
+   * @since 1.5.0
+   */
+  public static <S extends BuildService<P>, P extends BuildServiceParameters> @NotNull Provider<S> registerIfAbsent(
+    final @NotNull Gradle gradle,
+    final @NotNull String name,
+    final @NotNull Class<S> type,
+    final int maxParallelUsages,
+    final @NotNull Action<? super BuildServiceSpec<P>> configure
+  ) {
+    if (maxParallelUsages < 1) {
+      throw new IllegalArgumentException("maxParallelUsages must be at least 1, but was " + maxParallelUsages);
+    }
+    requireNonNull(configure, "configure");
+    return requireNonNull(gradle, "gradle").getSharedServices().registerIfAbsent(name, type, spec -> {
+      spec.getMaxParallelUsages().set(maxParallelUsages);
+      configure.execute(spec);
+    });
+  }
+
+  /**
+   * Register a build service without parameters, or get the existing registration, limiting how many tasks may use it at once.
+   *
+   * @param <S> the service type
+   * @param gradle the build to register with
+   * @param name the service name
+   * @param type the service type
+   * @param maxParallelUsages the maximum number of tasks that may use the service at once
+   * @return a provider for the service
+   * @since 1.5.0
+   */
+  public static <S extends BuildService<BuildServiceParameters.None>> @NotNull Provider<S> registerIfAbsent(
+    final @NotNull Gradle gradle,
+    final @NotNull String name,
+    final @NotNull Class<S> type,
+    final int maxParallelUsages
+  ) {
+    return BuildServices.registerIfAbsent(gradle, name, type, maxParallelUsages, spec -> { });
+  }
+
+  /**
+   * Get a cache shared between every project in a build, and cleared once the build finishes.
+   *
+   * <p>This is suitable for memoizing expensive computations, such as parsed manifests or resolved metadata, that
+   * many projects would otherwise repeat. The maximum size is only used when the cache is first created. Names are
+   * shared between every plugin in a build that uses the same copy of mammoth, so should be qualified, for example with
+   * the plugin's package.</p>
+   *
+   * @param <K> the key type
+   * @param <V> the value type
+   * @param gradle the build
+   * @param name the cache name
+   * @param maximumSize the maximum number of values to hold
+   * @return the cache
+   * @since 1.5.0
+   */
+  public static <K, V> @NotNull BoundedCache<K, V> sharedCache(final @NotNull Gradle gradle, final @NotNull String name, final int maximumSize) {
+    requireNonNull(name, "name");
+    final String serviceName = SharedStateService.registrationName();
+    // Gradle returns an existing registration without checking its type
+    final Object service = requireNonNull(gradle, "gradle").getSharedServices()
+      .registerIfAbsent(serviceName, SharedStateService.class, spec -> { })
+      .get();
+    if (!(service instanceof SharedStateService)) {
+      throw new IllegalStateException("The build service " + serviceName + " is a " + service.getClass().getName() + " from "
+        + service.getClass().getClassLoader() + ", rather than a " + SharedStateService.class.getName() + " from " + SharedStateService.class.getClassLoader());
+    }
+    return ((SharedStateService) service).cache(name, maximumSize);
+  }
+}
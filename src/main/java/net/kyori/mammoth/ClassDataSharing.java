@@ -0,0 +1,191 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import org.jetbrains.annotations.NotNull;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Helpers for reusing class-data-sharing (CDS) archives between runs of forked tool JVMs.
+ *
+ * <p>An archive is dumped on the first run of a JVM with a certain classpath, and mapped directly into memory on
+ * later runs, which skips most class loading and verification at startup. Archives are keyed on the exact Java runtime
+ * version and the path, size and modification time of every classpath element, as the JVM will refuse to use an
+ * archive created for anything else.</p>
+ *
+ * <p>Only classes loaded from the JVM's own class path (rather than from class loaders created by the tool) are archived,
+ * so this is most effective for tools launched with their full classpath, such as {@code JavaExec} tasks. The JVM will
+ * also refuse to dump an archive if the classpath contains non-empty directories, so it should consist only of jars.</p>
+ *
+ * @since 1.5.0
+ */
+public final class ClassDataSharing {
+  static final int MINIMUM_DYNAMIC_ARCHIVE_VERSION = 13;
+
+  private ClassDataSharing() {
+  }
+
+  /**
+   * Get the archive for a classpath running on the current JVM.
+   *
+   * @param directory the directory archives are stored in
+   * @param classpath the classpath of the forked JVM
+   * @return the archive
+   * @throws IOException if the classpath could not be inspected
+   * @since 1.5.0
+   */
+  public static @NotNull Archive archive(final @NotNull Path directory, final @NotNull Collection<File> classpath) throws IOException {
+    return ClassDataSharing.archive(directory, classpath, JavaVersions.CURRENT_FEATURE_VERSION, System.getProperty("java.vendor") + ' ' + System.getProperty("java.runtime.version"));
+  }
+
+  /**
+   * Get the archive for a classpath running on a particular JVM.
+   *
+   * @param directory the directory archives are stored in
+   * @param classpath the classpath of the forked JVM
+   * @param javaFeatureVersion the feature version of the forked JVM, such as {@code 17}
+   * @param javaRuntimeVersion a string identifying the exact build of the forked JVM, such as its vendor and {@code java.runtime.version}
+   * @return the archive
+   * @throws IOException if the classpath could not be inspected
+   * @since 1.5.0
+   */
+  public static @NotNull Archive archive(
+    final @NotNull Path directory,
+    final @NotNull Collection<File> classpath,
+    final int javaFeatureVersion,
+    final @NotNull String javaRuntimeVersion
+  ) throws IOException {
+    requireNonNull(directory, "directory");
+    requireNonNull(classpath, "classpath");
+    requireNonNull(javaRuntimeVersion, "javaRuntimeVersion");
+
+    final MessageDigest digest = ClassPathFingerprinter.digest();
+    digest.update(javaRuntimeVersion.getBytes(StandardCharsets.UTF_8));
+    for (final File element : classpath) {
+      final Path path = element.toPath().toAbsolutePath();
+      digest.update((byte) 0);
+      digest.update(path.toString().getBytes(StandardCharsets.UTF_8));
+      if (Files.isRegularFile(path)) {
+        digest.update((Files.size(path) + ":" + Files.getLastModifiedTime(path).toMillis()).getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    final String key = ClassPathFingerprinter.hex(digest.digest());
+    // the JVM will not create missing directories when dumping
+    Files.createDirectories(directory);
+    return new ArchiveImpl(directory.resolve(key + ".jsa"), javaFeatureVersion);
+  }
+
+  /**
+   * A class-data-sharing archive for a certain JVM and classpath, which may not exist yet.
+   *
+   * @since 1.5.0
+   */
+  public interface Archive {
+    /**
+     * Get the location of the archive.
+     *
+     * @return the archive file
+     * @since 1.5.0
+     */
+    @NotNull Path file();
+
+    /**
+     * Get the arguments to pass to the forked JVM to use the archive, or to create it if it does not exist yet.
+     *
+     * <p>The list is empty for JVMs older than Java 13, which cannot create archives dynamically.</p>
+     *
+     * @return the JVM arguments
+     * @since 1.5.0
+     */
+    @NotNull List<String> jvmArguments();
+
+    /**
+     * Publish an archive dumped by a JVM launched with {@link #jvmArguments()}, once it has exited.
+     *
+     * <p>Archives are dumped to a temporary location first so that concurrent runs never observe a partial archive.
+     * This must be called once the forked JVM has exited successfully. It has no effect if no archive was dumped.</p>
+     *
+     * @throws IOException if the archive could not be moved into place
+     * @since 1.5.0
+     */
+    void commit() throws IOException;
+  }
+
+  static final class ArchiveImpl implements Archive {
+    private final Path file;
+    private final Path dumpFile;
+    private final int javaFeatureVersion;
+
+    ArchiveImpl(final Path file, final int javaFeatureVersion) {
+      this.file = file;
+      this.dumpFile = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+      this.javaFeatureVersion = javaFeatureVersion;
+    }
+
+    @Override
+    public @NotNull Path file() {
+      return this.file;
+    }
+
+    @Override
+    public @NotNull List<String> jvmArguments() {
+      if (this.javaFeatureVersion < MINIMUM_DYNAMIC_ARCHIVE_VERSION) {
+        return Collections.emptyList();
+      }
+
+      // -XX:+AutoCreateSharedArchive on Java 19 and newer would regenerate the archive in place, where concurrent runs
+      // could observe it partially written. The key already changes whenever the archive would be stale, so every
+      // version dumps to a private file instead, which is only published by commit.
+      if (Files.isRegularFile(this.file)) {
+        return Collections.singletonList("-XX:SharedArchiveFile=" + this.file.toAbsolutePath());
+      }
+      return Collections.singletonList("-XX:ArchiveClassesAtExit=" + this.dumpFile.toAbsolutePath());
+    }
+
+    @Override
+    public void commit() throws IOException {
+      if (!Files.isRegularFile(this.dumpFile)) {
+        return;
+      }
+      try {
+        Files.move(this.dumpFile, this.file, StandardCopyOption.ATOMIC_MOVE);
+      } catch (final AtomicMoveNotSupportedException ex) {
+        Files.move(this.dumpFile, this.file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+/**
+ * Counters and timers describing the work done by an isolating class loader.
+ *
+ * <p>Metrics are only collected by loaders built with {@link IsolatingClassLoader.Builder#collectMetrics(boolean)}, and
+ * can be retrieved with {@link IsolatingClassLoader#metrics(ClassLoader)}. Values are live, and are updated as the loader
+ * is used. Times include any classes loaded in turn while a class is being found or defined, such as its superclass.</p>
+ *
+ * <p>On Java 11 and newer, loaders that collect metrics also emit {@code net.kyori.mammoth.IsolatedClassLoad} events
+ * to Java Flight Recorder, if that event is enabled in the active recording.</p>
+ *
+ * @since 1.5.0
+ */
+public interface ClassLoaderMetrics {
+  /**
+   * Get the number of classes defined by the loader from its own classpath.
+   *
+   * @return the number of classes defined locally
+   * @since 1.5.0
+   */
+  long classesDefined();
+
+  /**
+   * Get the number of class loads delegated to the parent loader that completed successfully.
+   *
+   * <p>This counts every successful delegation through the loader, including those the JVM makes while defining a
+   * class to resolve its superclass and interfaces, such as {@code java.lang.Object}.</p>
+   *
+   * @return the number of classes loaded by the parent
+   * @since 1.5.0
+   */
+  long classesDelegated();
+
+  /**
+   * Get the number of class loads that could not be satisfied by either the loader or its parent.
+   *
+   * @return the number of misses
+   * @since 1.5.0
+   */
+  long classesNotFound();
+
+  /**
+   * Get the number of class file bytes read from the loader's own classpath.
+   *
+   * <p>This is only tracked for indexed loaders, which read class files themselves.</p>
+   *
+   * @return the number of bytes read
+   * @since 1.5.0
+   */
+  long bytesRead();
+
+  /**
+   * Get the number of entries on the loader's own classpath that are read from a versioned variant of a multi-release jar.
+   *
+   * <p>This is only tracked for indexed loaders, which select the variant for the running JVM themselves. The
+   * {@code META-INF/versions} directory each class was read from is reported on its Flight Recorder event.</p>
+   *
+   * @return the number of versioned entries
+   * @since 1.5.0
+   */
+  long versionedEntries();
+
+  /**
+   * Get the total time spent searching the loader's own classpath for classes, including defining those that were found.
+   *
+   * @return the time spent finding classes, in nanoseconds
+   * @since 1.5.0
+   */
+  long findClassNanos();
+
+  /**
+   * Get the total time spent defining classes.
+   *
+   * <p>This is only tracked for indexed loaders, which define classes themselves.</p>
+   *
+   * @return the time spent defining classes, in nanoseconds
+   * @since 1.5.0
+   */
+  long defineClassNanos();
+
+  /**
+   * Get the total time spent waiting to acquire per-class loading locks.
+   *
+   * @return the time spent waiting for locks, in nanoseconds
+   * @since 1.5.0
+   */
+  long lockWaitNanos();
+}
@@ -0,0 +1,119 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.util.concurrent.atomic.LongAdder;
+
+final class ClassLoaderMetricsImpl implements ClassLoaderMetrics {
+  private final LongAdder classesDefined = new LongAdder();
+  private final LongAdder classesDelegated = new LongAdder();
+  private final LongAdder classesNotFound = new LongAdder();
+  private final LongAdder bytesRead = new LongAdder();
+  private final LongAdder findClassNanos = new LongAdder();
+  private final LongAdder defineClassNanos = new LongAdder();
+  private final LongAdder lockWaitNanos = new LongAdder();
+  private final long versionedEntries;
+
+  ClassLoaderMetricsImpl(final long versionedEntries) {
+    this.versionedEntries = versionedEntries;
+  }
+
+  void lockAcquired(final long waitNanos) {
+    this.lockWaitNanos.add(waitNanos);
+  }
+
+  void searched(final boolean found, final long nanos) {
+    this.findClassNanos.add(nanos);
+    if (found) {
+      this.classesDefined.increment();
+    }
+  }
+
+  void defined(final int bytes, final long nanos) {
+    this.bytesRead.add(bytes);
+    this.defineClassNanos.add(nanos);
+  }
+
+  void delegated(final boolean found) {
+    if (found) {
+      this.classesDelegated.increment();
+    } else {
+      this.classesNotFound.increment();
+    }
+  }
+
+  @Override
+  public long classesDefined() {
+    return this.classesDefined.sum();
+  }
+
+  @Override
+  public long classesDelegated() {
+    return this.classesDelegated.sum();
+  }
+
+  @Override
+  public long classesNotFound() {
+    return this.classesNotFound.sum();
+  }
+
+  @Override
+  public long bytesRead() {
+    return this.bytesRead.sum();
+  }
+
+  @Override
+  public long versionedEntries() {
+    return this.versionedEntries;
+  }
+
+  @Override
+  public long findClassNanos() {
+    return this.findClassNanos.sum();
+  }
+
+  @Override
+  public long defineClassNanos() {
+    return this.defineClassNanos.sum();
+  }
+
+  @Override
+  public long lockWaitNanos() {
+    return this.lockWaitNanos.sum();
+  }
+
+  @Override
+  public String toString() {
+    return "ClassLoaderMetrics{"
+      + "classesDefined=" + this.classesDefined()
+      + ", classesDelegated=" + this.classesDelegated()
+      + ", classesNotFound=" + this.classesNotFound()
+      + ", bytesRead=" + this.bytesRead()
+      + ", versionedEntries=" + this.versionedEntries()
+      + ", findClassNanos=" + this.findClassNanos()
+      + ", defineClassNanos=" + this.defineClassNanos()
+      + ", lockWaitNanos=" + this.lockWaitNanos()
+      + "}";
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Computes content hashes of classpaths.
+ *
+ * <p>Hashes of individual files are remembered for as long as the file's size and modification time are unchanged,
+ * so a classpath shared between many projects only has its contents read once.</p>
+ */
+final class ClassPathFingerprinter {
+  private static final String ALGORITHM = "SHA-256";
+  private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+  private final Map<String, FileHash> files = new ConcurrentHashMap<>();
+
+  /**
+   * Compute a fingerprint for an ordered classpath.
+   *
+   * @param classpath the classpath
+   * @return a hex-encoded hash of the contents of every classpath element, in order
+   * @throws IOException if any element could not be read
+   */
+  @NotNull String fingerprint(final @NotNull List<URL> classpath) throws IOException {
+    final MessageDigest digest = ClassPathFingerprinter.digest();
+    for (final URL url : classpath) {
+      final @Nullable File file = ClassPathFingerprinter.toFile(url);
+      if (file == null) {
+        // not something we can read, so only its identity can contribute
+        digest.update(url.toExternalForm().getBytes(StandardCharsets.UTF_8));
+      } else if (file.isDirectory()) {
+        digest.update(this.hashDirectory(file.toPath()));
+      } else if (file.isFile()) {
+        digest.update(this.hashFile(file.toPath()));
+      } else {
+        digest.update(file.getPath().getBytes(StandardCharsets.UTF_8));
+      }
+      digest.update((byte) 0);
+    }
+    return ClassPathFingerprinter.hex(digest.digest());
+  }
+
+  private static @Nullable File toFile(final URL url) {
+    if (!"file".equals(url.getProtocol())) {
+      return null;
+    }
+    try {
+      return new File(url.toURI());
+    } catch (final URISyntaxException | IllegalArgumentException ex) {
+      return null;
+    }
+  }
+
+  private byte[] hashDirectory(final Path directory) throws IOException {
+    final List<Path> children;
+    try (final Stream<Path> walk = Files.walk(directory)) {
+      children = walk.filter(Files::isRegularFile).collect(Collectors.toCollection(ArrayList::new));
+    }
+    Collections.sort(children);
+
+    final MessageDigest digest = ClassPathFingerprinter.digest();
+    for (final Path child : children) {
+      digest.update(directory.relativize(child).toString().replace(File.separatorChar, '/').getBytes(StandardCharsets.UTF_8));
+      digest.update(this.hashFile(child));
+    }
+    return digest.digest();
+  }
+
+  private byte[] hashFile(final Path file) throws IOException {
+    final String key = file.toAbsolutePath().toString();
+    final long size = Files.size(file);
+    final long lastModified = Files.getLastModifiedTime(file).toMillis();
+    final FileHash existing = this.files.get(key);
+    if (existing != null && existing.size == size && existing.lastModified == lastModified) {
+      return existing.hash;
+    }
+
+    final MessageDigest digest = ClassPathFingerprinter.digest();
+    try (final InputStream is = Files.newInputStream(file)) {
+      final byte[] buffer = new byte[8192];
+      int read;
+      while ((read = is.read(buffer)) != -1) {
+        digest.update(buffer, 0, read);
+      }
+    }
+    final byte[] hash = digest.digest();
+    this.files.put(key, new FileHash(size, lastModified, hash));
+    return hash;
+  }
+
+  static @NotNull MessageDigest digest() {
+    try {
+      return MessageDigest.getInstance(ALGORITHM);
+    } catch (final NoSuchAlgorithmException ex) {
+      throw new IllegalStateException("Every JVM is required to support " + ALGORITHM, ex);
+    }
+  }
+
+  static @NotNull String hex(final byte @NotNull[] bytes) {
+    final char[] result = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      result[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+      result[i * 2 + 1] = HEX[bytes[i] & 0xf];
+    }
+    return new String(result);
+  }
+
+  static final class FileHash {
+    final long size;
+    final long lastModified;
+    final byte[] hash;
+
+    FileHash(final long size, final long lastModified, final byte[] hash) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.hash = hash;
+    }
+  }
+}
@@ -0,0 +1,504 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.CodeSource;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * An index of every entry available on a classpath, mapping each entry name to the classpath element that owns it.
+ *
+ * <p>Jar central directories and directory trees are scanned once on creation, so that later lookups are
+ * a single map access rather than a probe of every classpath element in order.</p>
+ */
+final class ClassPathIndex implements Closeable {
+  private static final Logger LOGGER = Logging.getLogger(ClassPathIndex.class);
+  private static final String VERSIONS_PREFIX = "META-INF/versions/";
+  private static final int FIRST_VERSIONED_RELEASE = 9;
+
+  private final List<Root> roots;
+  private final Map<String, Root> entries;
+  // every owner after the first, for the few entries present in more than one element
+  private final Map<String, List<Root>> shadowed;
+
+  private ClassPathIndex(final List<Root> roots, final Map<String, Root> entries, final Map<String, List<Root>> shadowed) {
+    this.roots = roots;
+    this.entries = entries;
+    this.shadowed = shadowed;
+  }
+
+  /**
+   * Index the provided classpath.
+   *
+   * <p>Elements that do not exist are skipped, as they would be by a {@link java.net.URLClassLoader}.
+   * When an entry is present in several elements, the first element on the classpath wins.</p>
+   *
+   * <p>Entries of multi-release jars are resolved to the variant for the running JVM here, so that later reads of
+   * a versioned entry cost the same as any other.</p>
+   *
+   * @param urls the classpath, which must only contain {@code file:} urls
+   * @param mapped whether to read jars through memory mappings where possible
+   * @return a new index
+   * @throws IOException if any element of the classpath could not be read
+   */
+  static @NotNull ClassPathIndex index(final @NotNull URL @NotNull[] urls, final boolean mapped) throws IOException {
+    final List<Root> roots = new ArrayList<>(urls.length);
+    final Map<String, Root> entries = new HashMap<>();
+    final Map<String, List<Root>> shadowed = new HashMap<>();
+    try {
+      for (final URL url : urls) {
+        final File file = ClassPathIndex.toFile(url);
+        final Root root;
+        if (file.isDirectory()) {
+          root = new DirectoryRoot(url, file.toPath());
+        } else if (file.isFile()) {
+          final @Nullable Root mappedRoot = mapped ? MappedJarRoot.open(url, file.toPath()) : null;
+          root = mappedRoot != null ? mappedRoot : new JarRoot(url, new JarFile(file));
+        } else {
+          continue;
+        }
+        roots.add(root);
+        final List<String> names = new ArrayList<>();
+        root.index(names::add);
+        root.variants = ClassPathIndex.variants(root, names, JavaVersions.CURRENT_FEATURE_VERSION);
+        if (!root.variants.isEmpty()) {
+          LOGGER.debug("Resolved {} entries of multi-release jar {} to their variants for Java {}", root.variants.size(), url, JavaVersions.CURRENT_FEATURE_VERSION);
+          // entries only present in versioned directories are visible under their unversioned name
+          names.addAll(root.variants.keySet());
+        }
+        for (final String name : names) {
+          final @Nullable Root existing = entries.putIfAbsent(name, root);
+          if (existing != null && existing != root) {
+            shadowed.computeIfAbsent(name, k -> new ArrayList<>(1)).add(root);
+          }
+        }
+      }
+    } catch (final IOException | RuntimeException ex) {
+      for (final Root root : roots) {
+        try {
+          root.close();
+        } catch (final IOException suppressed) {
+          ex.addSuppressed(suppressed);
+        }
+      }
+      throw ex;
+    }
+    return new ClassPathIndex(Collections.unmodifiableList(roots), entries, shadowed);
+  }
+
+  /**
+   * Select the variant of each versioned entry in a multi-release jar to use on a certain Java version.
+   *
+   * @param root the classpath element
+   * @param names every entry in the element
+   * @param featureVersion the Java feature version to select variants for
+   * @return a map from unversioned entry names to the versioned entry to read in their place
+   * @throws IOException if the manifest of the element could not be read
+   */
+  static @NotNull Map<String, String> variants(final @NotNull Root root, final @NotNull List<String> names, final int featureVersion) throws IOException {
+    if (featureVersion < FIRST_VERSIONED_RELEASE) {
+      return Collections.emptyMap();
+    }
+
+    // only read the manifest of jars that could be multi-release at all
+    boolean versioned = false;
+    for (final String name : names) {
+      if (name.startsWith(VERSIONS_PREFIX)) {
+        versioned = true;
+        break;
+      }
+    }
+    if (!versioned) {
+      return Collections.emptyMap();
+    }
+    final @Nullable Manifest manifest = root.manifest();
+    if (manifest == null || !Boolean.parseBoolean(manifest.getMainAttributes().getValue("Multi-Release"))) {
+      return Collections.emptyMap();
+    }
+
+    final Map<String, String> variants = new HashMap<>();
+    final Map<String, Integer> selected = new HashMap<>();
+    for (final String name : names) {
+      if (!name.startsWith(VERSIONS_PREFIX)) {
+        continue;
+      }
+      final int slash = name.indexOf('/', VERSIONS_PREFIX.length());
+      if (slash == -1 || slash == name.length() - 1) {
+        continue;
+      }
+      final int version;
+      try {
+        version = Integer.parseInt(name.substring(VERSIONS_PREFIX.length(), slash));
+      } catch (final NumberFormatException ex) {
+        continue;
+      }
+      if (version < FIRST_VERSIONED_RELEASE || version > featureVersion) {
+        continue;
+      }
+
+      final String unversioned = name.substring(slash + 1);
+      final @Nullable Integer previous = selected.get(unversioned);
+      if (previous == null || version > previous) {
+        selected.put(unversioned, version);
+        variants.put(unversioned, name);
+      }
+    }
+    return variants;
+  }
+
+  /**
+   * Get the number of entries resolved to a versioned variant of a multi-release jar.
+   *
+   * @return the number of versioned entries
+   */
+  int versionedEntries() {
+    int count = 0;
+    for (final Root root : this.roots) {
+      count += root.variants.size();
+    }
+    return count;
+  }
+
+  private static File toFile(final URL url) {
+    if (!"file".equals(url.getProtocol())) {
+      throw new IllegalArgumentException("Only file: urls can be indexed, but got " + url);
+    }
+    try {
+      return new File(url.toURI());
+    } catch (final URISyntaxException | IllegalArgumentException ex) {
+      throw new IllegalArgumentException("Unable to index classpath element " + url, ex);
+    }
+  }
+
+  /**
+   * Get the path of the entry holding the class with the provided binary name.
+   *
+   * @param className the binary name of the class
+   * @return the entry path
+   */
+  static @NotNull String classEntry(final @NotNull String className) {
+    return className.replace('.', '/').concat(".class");
+  }
+
+  /**
+   * Find the classpath element that owns a certain entry.
+   *
+   * @param entry the entry path, using {@code /} as a separator
+   * @return the owning element, or {@code null} if the entry is not present on this classpath
+   */
+  @Nullable Root owner(final @NotNull String entry) {
+    return this.entries.get(entry);
+  }
+
+  /**
+   * Find every classpath element that contains a certain entry.
+   *
+   * @param entry the entry path, using {@code /} as a separator
+   * @return the owning elements, in classpath order
+   */
+  @NotNull List<Root> owners(final @NotNull String entry) {
+    final @Nullable Root first = this.entries.get(entry);
+    if (first == null) {
+      return Collections.emptyList();
+    }
+    final @Nullable List<Root> rest = this.shadowed.get(entry);
+    if (rest == null) {
+      return Collections.singletonList(first);
+    }
+    final List<Root> result = new ArrayList<>(rest.size() + 1);
+    result.add(first);
+    result.addAll(rest);
+    return result;
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    for (final Root root : this.roots) {
+      try {
+        root.close();
+      } catch (final IOException ex) {
+        if (failure == null) {
+          failure = ex;
+        } else {
+          failure.addSuppressed(ex);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  static byte[] readFully(final InputStream is, final long sizeHint) throws IOException {
+    if (sizeHint >= 0 && sizeHint <= Integer.MAX_VALUE - 8) {
+      final byte[] result = new byte[(int) sizeHint];
+      int offset = 0;
+      int read;
+      while (offset < result.length && (read = is.read(result, offset, result.length - offset)) != -1) {
+        offset += read;
+      }
+      if (offset == result.length && is.read() == -1) {
+        return result;
+      }
+      // size hint was wrong, fall back to reading the remainder of the stream
+      final ByteArrayOutputStream os = new ByteArrayOutputStream(Math.max(offset * 2, 8192));
+      os.write(result, 0, offset);
+      return ClassPathIndex.drain(is, os);
+    }
+    return ClassPathIndex.drain(is, new ByteArrayOutputStream(8192));
+  }
+
+  private static byte[] drain(final InputStream is, final ByteArrayOutputStream os) throws IOException {
+    final byte[] buffer = new byte[8192];
+    int read;
+    while ((read = is.read(buffer)) != -1) {
+      os.write(buffer, 0, read);
+    }
+    return os.toByteArray();
+  }
+
+  /**
+   * A single element of the classpath.
+   */
+  abstract static class Root implements Closeable {
+    private final URL url;
+    private final CodeSource codeSource;
+    // versioned entries read in place of unversioned ones, only populated for multi-release jars
+    private Map<String, String> variants = Collections.emptyMap();
+
+    Root(final URL url) {
+      this.url = url;
+      this.codeSource = new CodeSource(url, (Certificate[]) null);
+    }
+
+    final @NotNull URL url() {
+      return this.url;
+    }
+
+    final @NotNull CodeSource codeSource() {
+      return this.codeSource;
+    }
+
+    /**
+     * Report the name of every file entry in this element.
+     *
+     * @param names the consumer to report names to
+     * @throws IOException if the element could not be read
+     */
+    abstract void index(final @NotNull Consumer<String> names) throws IOException;
+
+    abstract @Nullable Manifest manifest() throws IOException;
+
+    /**
+     * Get the entry that is read in place of a certain entry.
+     *
+     * <p>For multi-release jars, this is the versioned variant selected for the running JVM, if there is one.</p>
+     *
+     * @param entry the entry
+     * @return the entry to read
+     */
+    final @NotNull String variant(final @NotNull String entry) {
+      return this.variants.isEmpty() ? entry : this.variants.getOrDefault(entry, entry);
+    }
+
+    /**
+     * Get the Java version whose variant of a certain entry is read.
+     *
+     * @param entry the entry
+     * @return the {@code META-INF/versions} directory the entry is read from, or {@code 0} if it is not versioned
+     */
+    final int release(final @NotNull String entry) {
+      final String variant = this.variant(entry);
+      if (variant.equals(entry)) {
+        return 0;
+      }
+      return Integer.parseInt(variant.substring(VERSIONS_PREFIX.length(), variant.indexOf('/', VERSIONS_PREFIX.length())));
+    }
+
+    final byte @NotNull[] read(final @NotNull String entry) throws IOException {
+      return this.readEntry(this.variant(entry));
+    }
+
+    /**
+     * Read an entry into a buffer that must be consumed before this root is read from again on the same thread.
+     *
+     * @param entry the entry to read
+     * @return a buffer holding the entry contents
+     * @throws IOException if the entry could not be read
+     */
+    final @NotNull ByteBuffer buffer(final @NotNull String entry) throws IOException {
+      return this.bufferEntry(this.variant(entry));
+    }
+
+    /**
+     * Get a URL that can be used to read an entry in this element, as would be returned by {@link ClassLoader#getResource(String)}.
+     *
+     * <p>For versioned entries of multi-release jars, the url points at the selected variant.</p>
+     *
+     * @param entry the entry
+     * @return a url for the entry
+     * @throws MalformedURLException if no url could be created
+     */
+    final @NotNull URL resource(final @NotNull String entry) throws MalformedURLException {
+      return this.entryUrl(this.variant(entry));
+    }
+
+    abstract byte @NotNull[] readEntry(final @NotNull String path) throws IOException;
+
+    @NotNull ByteBuffer bufferEntry(final @NotNull String path) throws IOException {
+      return ByteBuffer.wrap(this.readEntry(path));
+    }
+
+    @NotNull URL entryUrl(final @NotNull String path) throws MalformedURLException {
+      try {
+        return new URL("jar:" + this.url.toExternalForm() + "!/" + new URI(null, null, path, null).getRawPath());
+      } catch (final URISyntaxException ex) {
+        final MalformedURLException wrapped = new MalformedURLException("Unable to create url for " + path + " in " + this.url);
+        wrapped.initCause(ex);
+        throw wrapped;
+      }
+    }
+  }
+
+  static final class JarRoot extends Root {
+    private final JarFile jar;
+
+    JarRoot(final URL url, final JarFile jar) {
+      super(url);
+      this.jar = jar;
+    }
+
+    @Override
+    void index(final @NotNull Consumer<String> names) {
+      final Enumeration<JarEntry> it = this.jar.entries();
+      while (it.hasMoreElements()) {
+        final JarEntry entry = it.nextElement();
+        if (!entry.isDirectory()) {
+          names.accept(entry.getName());
+        }
+      }
+    }
+
+    @Override
+    @Nullable Manifest manifest() throws IOException {
+      return this.jar.getManifest();
+    }
+
+    @Override
+    byte @NotNull[] readEntry(final @NotNull String path) throws IOException {
+      final JarEntry jarEntry = this.jar.getJarEntry(path);
+      if (jarEntry == null) {
+        throw new IOException("Entry " + path + " is no longer present in " + this.jar.getName());
+      }
+      try (final InputStream is = this.jar.getInputStream(jarEntry)) {
+        return ClassPathIndex.readFully(is, jarEntry.getSize());
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.jar.close();
+    }
+  }
+
+  static final class DirectoryRoot extends Root {
+    private final Path directory;
+
+    DirectoryRoot(final URL url, final Path directory) {
+      super(url);
+      this.directory = directory;
+    }
+
+    @Override
+    void index(final @NotNull Consumer<String> names) throws IOException {
+      Files.walkFileTree(this.directory, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+          if (attrs.isRegularFile()) {
+            final StringBuilder name = new StringBuilder();
+            for (final Path element : DirectoryRoot.this.directory.relativize(file)) {
+              if (name.length() > 0) {
+                name.append('/');
+              }
+              name.append(element);
+            }
+            names.accept(name.toString());
+          }
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    }
+
+    @Override
+    @NotNull URL entryUrl(final @NotNull String path) throws MalformedURLException {
+      return this.directory.resolve(path).toUri().toURL();
+    }
+
+    @Override
+    @Nullable Manifest manifest() {
+      // matches URLClassLoader, which does not read manifests from directories
+      return null;
+    }
+
+    @Override
+    byte @NotNull[] readEntry(final @NotNull String path) throws IOException {
+      return Files.readAllBytes(this.directory.resolve(path));
+    }
+
+    @Override
+    public void close() {
+      // nothing to release
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Loads and links lists of classes in the background.
+ */
+final class ClassPreloader {
+  private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+  private ClassPreloader() {
+  }
+
+  static @NotNull CompletableFuture<Integer> preload(final @NotNull ClassLoader loader, final @NotNull List<String> classNames, final int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism must be at least 1, but was " + parallelism);
+    }
+    if (classNames.isEmpty()) {
+      return CompletableFuture.completedFuture(0);
+    }
+
+    // resolving classes and running their initializers pins virtual threads to their carrier, even on Java 24 and
+    // newer, so a small pool of platform threads is used instead
+    final int threads = Math.min(parallelism, classNames.size());
+    final ExecutorService executor = Executors.newFixedThreadPool(threads, ClassPreloader.threadFactory());
+    final AtomicInteger next = new AtomicInteger();
+    final AtomicInteger loaded = new AtomicInteger();
+    final CompletableFuture<?>[] workers = new CompletableFuture<?>[threads];
+    for (int i = 0; i < threads; i++) {
+      // workers share a cursor so classes are loaded in roughly the order they were recorded in
+      workers[i] = CompletableFuture.runAsync(() -> {
+        int idx;
+        while ((idx = next.getAndIncrement()) < classNames.size()) {
+          if (ClassPreloader.loadAndLink(loader, classNames.get(idx))) {
+            loaded.incrementAndGet();
+          }
+        }
+      }, executor);
+    }
+
+    return CompletableFuture.allOf(workers)
+      .whenComplete((result, error) -> executor.shutdown())
+      .thenApply(ignored -> loaded.get());
+  }
+
+  private static boolean loadAndLink(final ClassLoader loader, final String name) {
+    try {
+      final Class<?> clazz = Class.forName(name, false, loader);
+      // reflecting on declared methods links (and so verifies) the class without running static initializers
+      clazz.getDeclaredMethods();
+      return true;
+    } catch (final ClassNotFoundException | LinkageError ex) {
+      // the classpath may have changed since the list was recorded, or optional dependencies may be absent
+      return false;
+    }
+  }
+
+  private static ThreadFactory threadFactory() {
+    final int pool = POOL_COUNTER.incrementAndGet();
+    final AtomicInteger threadCounter = new AtomicInteger();
+    return task -> {
+      final Thread thread = new Thread(task, "mammoth-preload-" + pool + "-" + threadCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * Read a class list, with one binary class name per line.
+   *
+   * <p>Blank lines and lines starting with {@code #} are ignored.</p>
+   *
+   * @param file the file to read
+   * @return the class names, or an empty list if the file does not exist
+   * @throws IOException if the file could not be read
+   */
+  static @NotNull List<String> readClassList(final @NotNull Path file) throws IOException {
+    final List<String> lines;
+    try {
+      lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+    } catch (final NoSuchFileException ex) {
+      return new ArrayList<>();
+    }
+
+    final List<String> names = new ArrayList<>(lines.size());
+    for (final String line : lines) {
+      final String name = line.trim();
+      if (!name.isEmpty() && !name.startsWith("#")) {
+        names.add(name);
+      }
+    }
+    return names;
+  }
+
+  static void writeClassList(final @NotNull Path file, final @NotNull List<String> classNames) throws IOException {
+    final Path parent = file.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    Files.write(file, classNames, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.function.UnaryOperator;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A bytecode transformation applied to classes as they are defined, optionally backed by an on-disk cache.
+ */
+final class ClassTransformation {
+  private final UnaryOperator<byte[]> transformer;
+  private final @Nullable Path cacheDirectory;
+  private final byte[] cacheVersion;
+
+  ClassTransformation(final UnaryOperator<byte[]> transformer, final @Nullable Path cacheDirectory, final @Nullable String cacheVersion) {
+    this.transformer = transformer;
+    this.cacheDirectory = cacheDirectory;
+    this.cacheVersion = cacheVersion == null ? new byte[0] : cacheVersion.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Transform a class, reusing a previous result for the same input if one has been cached.
+   *
+   * @param input the original class bytes
+   * @return the transformed class bytes
+   * @throws IOException if the cache could not be read or written
+   */
+  byte @NotNull[] apply(final byte @NotNull[] input) throws IOException {
+    if (this.cacheDirectory == null) {
+      return this.transformer.apply(input);
+    }
+
+    final String hash = this.hash(input);
+    final Path cached = this.cacheDirectory.resolve(hash.substring(0, 2)).resolve(hash + ".class");
+    try {
+      return Files.readAllBytes(cached);
+    } catch (final NoSuchFileException ex) {
+      // not yet transformed
+    }
+
+    final byte[] output = this.transformer.apply(input);
+    Files.createDirectories(cached.getParent());
+    final Path temp = Files.createTempFile(cached.getParent(), hash, ".tmp");
+    try {
+      Files.write(temp, output);
+      try {
+        Files.move(temp, cached, StandardCopyOption.ATOMIC_MOVE);
+      } catch (final AtomicMoveNotSupportedException ex) {
+        Files.move(temp, cached, StandardCopyOption.REPLACE_EXISTING);
+      } catch (final FileAlreadyExistsException ex) {
+        // another build got there first, and transformation is deterministic
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+    return output;
+  }
+
+  private String hash(final byte[] input) {
+    final MessageDigest digest = ClassPathFingerprinter.digest();
+    digest.update(this.cacheVersion);
+    digest.update((byte) 0);
+    return ClassPathFingerprinter.hex(digest.digest(input));
+  }
+}
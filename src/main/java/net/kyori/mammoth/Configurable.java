@@ -24,6 +24,7 @@
 package net.kyori.mammoth;
 
 import org.gradle.api.Action;
+import org.gradle.api.DomainObjectCollection;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -67,4 +68,19 @@ public final class Configurable {
     }
     return instance;
   }
+
+  /**
+   * Create a queue of actions that configure the elements of {@code collection} as they are realized.
+   *
+   * <p>Unlike {@link #configure(Object, Action)}, this defers configuration until an element is actually realized,
+   * so declaring many elements costs nothing beyond the single callback registered here.</p>
+   *
+   * @param collection the collection to configure elements of
+   * @param <T> the element type
+   * @return a new queue
+   * @since 1.5.0
+   */
+  public static <T> @NotNull DeferredConfiguration<T> deferred(final @NotNull DomainObjectCollection<T> collection) {
+    return DeferredConfiguration.attach(requireNonNull(collection, "collection"));
+  }
 }
@@ -0,0 +1,256 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.gradle.api.GradleException;
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.execution.TaskExecutionGraph;
+import org.gradle.api.initialization.Settings;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.tasks.TaskContainer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Detects tasks registered by plugins that capture objects the configuration cache cannot store.
+ *
+ * <p>When the {@value #PROPERTY} property is set to {@code warn} or {@code fail}, as read by
+ * {@link DiagnosticProperties}, the task container passed to {@link ProjectPlugin} and {@link ProjectOrSettingsPlugin}
+ * implementations is wrapped to record the line of plugin code registering each task. Once the task graph is ready, the actions and fields of every scheduled task
+ * registered by the plugin are searched for references to a {@link Project}, {@link Gradle} or {@link Settings}, which
+ * are either logged as a warning, or fail the build.</p>
+ *
+ * <p>This is a quick check that points at the cause of a problem. Running the build with {@code --configuration-cache}
+ * remains the authority on whether it can be stored.</p>
+ */
+final class ConfigurationCacheChecker {
+  static final String PROPERTY = "net.kyori.mammoth.configurationCacheCheck";
+
+  private static final Logger LOGGER = Logging.getLogger(ConfigurationCacheChecker.class);
+  private static final Class<?>[] DISALLOWED = {Project.class, Gradle.class, Settings.class};
+  private static final int MAXIMUM_DEPTH = 12;
+
+  private ConfigurationCacheChecker() {
+  }
+
+  /**
+   * Start observing the tasks a plugin registers, if checking is enabled.
+   *
+   * @param plugin the plugin being applied
+   * @param project the project the plugin is applied to
+   * @return the session, or {@code null} if checking is disabled
+   */
+  static @Nullable Session start(final @NotNull Plugin<?> plugin, final @NotNull Project project) {
+    final DiagnosticProperties.@Nullable Mode mode = DiagnosticProperties.mode(project.getProviders(), PROPERTY);
+    return mode == null ? null : new Session(plugin, project, mode == DiagnosticProperties.Mode.FAIL);
+  }
+
+  /**
+   * Observation of a single plugin application.
+   */
+  static final class Session {
+    private final Plugin<?> plugin;
+    private final Project project;
+    private final boolean fail;
+    private final Map<String, String> registrations = new LinkedHashMap<>();
+
+    Session(final Plugin<?> plugin, final Project project, final boolean fail) {
+      this.plugin = plugin;
+      this.project = project;
+      this.fail = fail;
+    }
+
+    /**
+     * Wrap a task container to record the tasks registered through it.
+     *
+     * @param tasks the task container to pass to the plugin
+     * @return the observed task container
+     */
+    @NotNull TaskContainer tasks(final @NotNull TaskContainer tasks) {
+      final InvocationHandler handler = (proxy, method, args) -> {
+        final String name = method.getName();
+        if ((name.equals("register") || name.equals("create") || name.equals("maybeCreate")) && args != null && args.length > 0 && args[0] instanceof String) {
+          final @Nullable StackTraceElement caller = EagerTaskDetector.caller();
+          this.registrations.putIfAbsent((String) args[0], caller == null ? "an unknown location" : caller.toString());
+        }
+        final @Nullable Object result;
+        try {
+          result = method.invoke(tasks, args);
+        } catch (final InvocationTargetException ex) {
+          throw ex.getCause();
+        }
+        return result == tasks ? proxy : result;
+      };
+      return (TaskContainer) Proxy.newProxyInstance(TaskContainer.class.getClassLoader(), new Class<?>[] {TaskContainer.class}, handler);
+    }
+
+    /**
+     * Check the registered tasks once the task graph is ready.
+     */
+    void finish() {
+      if (this.registrations.isEmpty()) {
+        return;
+      }
+      this.project.getGradle().getTaskGraph().whenReady(this::check);
+    }
+
+    private void check(final TaskExecutionGraph graph) {
+      final List<String> problems = new ArrayList<>();
+      for (final Task task : graph.getAllTasks()) {
+        final @Nullable String registration = task.getProject() == this.project ? this.registrations.get(task.getName()) : null;
+        if (registration == null) {
+          continue;
+        }
+        for (final String capture : ConfigurationCacheChecker.captures(task)) {
+          problems.add("task '" + task.getPath() + "' (registered at " + registration + "): " + capture);
+        }
+      }
+      if (problems.isEmpty()) {
+        return;
+      }
+
+      final StringBuilder message = new StringBuilder("The plugin ").append(this.plugin.getClass().getName())
+        .append(" registered tasks in ").append(this.project.getDisplayName()).append(" that the configuration cache cannot store:");
+      for (final String problem : problems) {
+        message.append("\n    ").append(problem);
+      }
+      message.append("\nResolve what is needed from these objects while configuring, and pass it to tasks through properties or providers.");
+      if (this.fail) {
+        throw new GradleException(message.toString());
+      }
+      LOGGER.warn(message.toString());
+    }
+  }
+
+  /**
+   * Find references to objects the configuration cache cannot store, reachable from a task's actions and own fields.
+   *
+   * @param task the task
+   * @return a description of each reference found
+   */
+  static @NotNull List<String> captures(final @NotNull Task task) {
+    final List<String> captures = new ArrayList<>();
+    final Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    seen.add(task);
+    int index = 0;
+    for (final Object action : task.getActions()) {
+      // actions are wrapped by Gradle, so the wrapper's own fields are searched too
+      ConfigurationCacheChecker.searchFields(action, "action " + index++, 0, true, seen, captures);
+    }
+    ConfigurationCacheChecker.searchFields(task, "task", 0, false, seen, captures);
+    return captures;
+  }
+
+  private static void search(final @Nullable Object value, final String path, final int depth, final Set<Object> seen, final List<String> captures) {
+    if (value == null || depth > MAXIMUM_DEPTH || !seen.add(value)) {
+      return;
+    }
+    for (final Class<?> disallowed : DISALLOWED) {
+      if (disallowed.isInstance(value)) {
+        captures.add(path + " captures a " + disallowed.getSimpleName() + " (" + value + ")");
+        return;
+      }
+    }
+
+    final Class<?> type = value.getClass();
+    if (type.isArray()) {
+      if (!type.getComponentType().isPrimitive()) {
+        for (int i = 0, length = Array.getLength(value); i < length; i++) {
+          ConfigurationCacheChecker.search(Array.get(value, i), path + '[' + i + ']', depth + 1, seen, captures);
+        }
+      }
+    } else if (value instanceof Collection<?> && ConfigurationCacheChecker.isPlatform(type)) {
+      for (final Object element : (Collection<?>) value) {
+        ConfigurationCacheChecker.search(element, path + "[]", depth + 1, seen, captures);
+      }
+    } else if (value instanceof Map<?, ?> && ConfigurationCacheChecker.isPlatform(type)) {
+      for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        ConfigurationCacheChecker.search(entry.getKey(), path + "{key}", depth + 1, seen, captures);
+        ConfigurationCacheChecker.search(entry.getValue(), path + "{" + entry.getKey() + "}", depth + 1, seen, captures);
+      }
+    } else {
+      ConfigurationCacheChecker.searchFields(value, path, depth, false, seen, captures);
+    }
+  }
+
+  private static void searchFields(
+    final Object value,
+    final String path,
+    final int depth,
+    final boolean includeGradle,
+    final Set<Object> seen,
+    final List<String> captures
+  ) {
+    seen.add(value);
+    for (@Nullable Class<?> type = value.getClass(); type != null; type = type.getSuperclass()) {
+      // Gradle, the JDK and language runtimes manage the state of their own types
+      if (ConfigurationCacheChecker.isPlatform(type)
+        || (!includeGradle && (type.getName().startsWith("org.gradle.") || type.getName().endsWith("_Decorated")))) {
+        continue;
+      }
+      for (final Field field : type.getDeclaredFields()) {
+        if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers()) || field.getType().isPrimitive()) {
+          continue;
+        }
+        final @Nullable Object fieldValue;
+        try {
+          field.setAccessible(true);
+          fieldValue = field.get(value);
+        } catch (final RuntimeException | IllegalAccessException ex) {
+          continue;
+        }
+        ConfigurationCacheChecker.search(fieldValue, path + " -> " + field.getName(), depth + 1, seen, captures);
+      }
+    }
+  }
+
+  private static boolean isPlatform(final Class<?> type) {
+    final String name = type.getName();
+    return name.startsWith("java.")
+      || name.startsWith("javax.")
+      || name.startsWith("jdk.")
+      || name.startsWith("sun.")
+      || name.startsWith("groovy.")
+      || name.startsWith("org.codehaus.groovy.")
+      || name.startsWith("kotlin.");
+  }
+}
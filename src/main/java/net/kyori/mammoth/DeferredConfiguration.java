@@ -0,0 +1,164 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.gradle.api.Action;
+import org.gradle.api.DomainObjectCollection;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A queue of configuration actions applied to the elements of a domain object collection as they are realized.
+ *
+ * <p>Rather than registering one {@link DomainObjectCollection#configureEach(Action)} callback per action, a queue
+ * registers a single callback and applies every matching action to each realized element in one batch. Registering
+ * the same action for the same type more than once has no further effect, so plugins applied to many projects should
+ * prefer non-capturing actions (such as static method references), which are shared instances.</p>
+ *
+ * <p>As with {@code configureEach}, actions are also applied to elements realized before they were added, and
+ * elements that are never realized are never configured.</p>
+ *
+ * @param <T> the element type
+ * @see Configurable#deferred(DomainObjectCollection)
+ * @since 1.5.0
+ */
+public final class DeferredConfiguration<T> {
+  private final List<Entry> entries = new ArrayList<>(); // guarded by this
+  private final Set<Entry> known = new HashSet<>(); // guarded by this
+  private final Map<Class<?>, Action<Object>[]> resolved = new HashMap<>(); // guarded by this
+  private final List<T> realized = new ArrayList<>(); // guarded by this
+
+  private DeferredConfiguration() {
+  }
+
+  static <T> DeferredConfiguration<T> attach(final DomainObjectCollection<T> collection) {
+    final DeferredConfiguration<T> queue = new DeferredConfiguration<>();
+    collection.configureEach(queue::realize);
+    return queue;
+  }
+
+  /**
+   * Configure every element of the collection when it is realized.
+   *
+   * @param action the action to configure with
+   * @return this queue
+   * @since 1.5.0
+   */
+  public @NotNull DeferredConfiguration<T> configure(final @NotNull Action<? super T> action) {
+    return this.add(Object.class, action);
+  }
+
+  /**
+   * Configure every element of the collection of a certain type when it is realized.
+   *
+   * @param type the element type to configure
+   * @param action the action to configure with
+   * @param <S> the element type to configure
+   * @return this queue
+   * @since 1.5.0
+   */
+  public <S extends T> @NotNull DeferredConfiguration<T> configure(final @NotNull Class<S> type, final @NotNull Action<? super S> action) {
+    return this.add(requireNonNull(type, "type"), action);
+  }
+
+  @SuppressWarnings("unchecked")
+  private DeferredConfiguration<T> add(final Class<?> type, final Action<?> action) {
+    final Entry entry = new Entry(type, (Action<Object>) requireNonNull(action, "action"));
+    final List<T> existing = new ArrayList<>();
+    synchronized (this) {
+      if (!this.known.add(entry)) {
+        return this;
+      }
+      this.entries.add(entry);
+      this.resolved.clear();
+      for (final T element : this.realized) {
+        if (type.isInstance(element)) {
+          existing.add(element);
+        }
+      }
+    }
+    for (final T element : existing) {
+      entry.action.execute(element);
+    }
+    return this;
+  }
+
+  private void realize(final T element) {
+    final Action<Object>[] actions;
+    synchronized (this) {
+      this.realized.add(element);
+      actions = this.resolved.computeIfAbsent(element.getClass(), this::resolve);
+    }
+    for (final Action<Object> action : actions) {
+      action.execute(element);
+    }
+  }
+
+  // must hold lock on this
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private Action<Object>[] resolve(final Class<?> type) {
+    final List<Action<Object>> actions = new ArrayList<>();
+    for (final Entry entry : this.entries) {
+      if (entry.type.isAssignableFrom(type)) {
+        actions.add(entry.action);
+      }
+    }
+    return actions.toArray(new Action[0]);
+  }
+
+  private static final class Entry {
+    final Class<?> type;
+    final Action<Object> action;
+
+    Entry(final Class<?> type, final Action<Object> action) {
+      this.type = type;
+      this.action = action;
+    }
+
+    @Override
+    public boolean equals(final @Nullable Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Entry)) {
+        return false;
+      }
+      final Entry that = (Entry) other;
+      return this.type == that.type && this.action.equals(that.action);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * this.type.hashCode() + this.action.hashCode();
+    }
+  }
+}
@@ -0,0 +1,74 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.IOException;
+import java.net.URLClassLoader;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+final class DeferredIsolatingClassLoader implements IsolatingClassLoader.Deferred {
+  private final IsolatingClassLoaderBuilderImpl spec;
+  private volatile @Nullable URLClassLoader loader;
+  private boolean closed; // guarded by this
+
+  DeferredIsolatingClassLoader(final IsolatingClassLoaderBuilderImpl spec) {
+    this.spec = spec;
+  }
+
+  @Override
+  public @NotNull URLClassLoader loader() {
+    @Nullable URLClassLoader loader = this.loader;
+    if (loader == null) {
+      synchronized (this) {
+        if (this.closed) {
+          throw new IllegalStateException("This loader has been closed");
+        }
+        loader = this.loader;
+        if (loader == null) {
+          this.loader = loader = this.spec.build();
+        }
+      }
+    }
+    return loader;
+  }
+
+  @Override
+  public boolean isResolved() {
+    return this.loader != null;
+  }
+
+  @Override
+  public void close() throws IOException {
+    final @Nullable URLClassLoader loader;
+    synchronized (this) {
+      this.closed = true;
+      loader = this.loader;
+      this.loader = null;
+    }
+    if (loader != null) {
+      loader.close();
+    }
+  }
+}
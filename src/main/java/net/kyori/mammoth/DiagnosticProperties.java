@@ -0,0 +1,85 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.util.Locale;
+import org.gradle.api.provider.ProviderFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Reads the properties that enable mammoth's opt-in diagnostics.
+ *
+ * <p>Each property may be set as a Gradle property, whether on the command line with {@code -P} or in any
+ * {@code gradle.properties} file, or otherwise as a system property.</p>
+ */
+final class DiagnosticProperties {
+  private DiagnosticProperties() {
+  }
+
+  /**
+   * Read a diagnostic property.
+   *
+   * @param providers the provider factory of the plugin target
+   * @param property the property name
+   * @return the trimmed, lower case value, or {@code null} if the property is not set
+   */
+  static @Nullable String read(final @NotNull ProviderFactory providers, final @NotNull String property) {
+    final @Nullable String value = Properties.forUseAtConfigurationTime(providers.gradleProperty(property))
+      .orElse(Properties.forUseAtConfigurationTime(providers.systemProperty(property)))
+      .getOrNull();
+    return value == null ? null : value.trim().toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * Read a diagnostic property that is set to {@code warn} or {@code fail}.
+   *
+   * @param providers the provider factory of the plugin target
+   * @param property the property name
+   * @return the mode, or {@code null} if the property is not set to a mode
+   */
+  static @Nullable Mode mode(final @NotNull ProviderFactory providers, final @NotNull String property) {
+    final @Nullable String value = DiagnosticProperties.read(providers, property);
+    if (value == null) {
+      return null;
+    }
+
+    switch (value) {
+      case "warn":
+        return Mode.WARN;
+      case "fail":
+        return Mode.FAIL;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * How a diagnostic reports the problems it finds.
+   */
+  enum Mode {
+    WARN,
+    FAIL
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.gradle.api.DomainObjectCollection;
+import org.gradle.api.GradleException;
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.tasks.TaskContainer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Detects plugins realizing tasks eagerly while they are applied.
+ *
+ * <p>When the {@value #PROPERTY} property is set to {@code warn} or {@code fail}, as read by
+ * {@link DiagnosticProperties}, the task container passed to {@link ProjectPlugin} and {@link ProjectOrSettingsPlugin}
+ * implementations is wrapped to record every call that creates or realizes tasks eagerly, such as {@code create},
+ * {@code getByName} or {@code all}, along with the line of plugin code that made it. Once the plugin has been applied, the calls are either logged as a warning, or fail
+ * the build.</p>
+ *
+ * <p>Only the container passed to the plugin, and collections derived from it, are observed. Calls made through
+ * {@link Project#getTasks()} are not.</p>
+ */
+final class EagerTaskDetector {
+  static final String PROPERTY = "net.kyori.mammoth.eagerTasks";
+
+  private static final Logger LOGGER = Logging.getLogger(EagerTaskDetector.class);
+  // methods that create or realize tasks, rather than operating on providers
+  private static final Set<String> EAGER_METHODS = new HashSet<>(Arrays.asList(
+    "create",
+    "maybeCreate",
+    "replace",
+    "getByName",
+    "findByName",
+    "getAt",
+    "getByPath",
+    "findByPath",
+    "all",
+    "whenTaskAdded",
+    "whenObjectAdded",
+    "configure",
+    "findAll",
+    "getAsMap",
+    "iterator",
+    "forEach",
+    "spliterator",
+    "stream",
+    "parallelStream",
+    "toArray"
+  ));
+
+  private EagerTaskDetector() {
+  }
+
+  /**
+   * Start observing a plugin's use of the task container, if detection is enabled.
+   *
+   * @param plugin the plugin being applied
+   * @param project the project the plugin is applied to
+   * @return the session, or {@code null} if detection is disabled
+   */
+  static @Nullable Session start(final @NotNull Plugin<?> plugin, final @NotNull Project project) {
+    final DiagnosticProperties.@Nullable Mode mode = DiagnosticProperties.mode(project.getProviders(), PROPERTY);
+    return mode == null ? null : new Session(plugin, project, mode == DiagnosticProperties.Mode.FAIL);
+  }
+
+  /**
+   * Observation of a single plugin application.
+   */
+  static final class Session {
+    private final Plugin<?> plugin;
+    private final Project project;
+    private final boolean fail;
+    private final TaskContainer tasks;
+    private final List<String> calls = new ArrayList<>();
+
+    Session(final Plugin<?> plugin, final Project project, final boolean fail) {
+      this.plugin = plugin;
+      this.project = project;
+      this.fail = fail;
+      this.tasks = this.wrap(TaskContainer.class, project.getTasks());
+    }
+
+    /**
+     * Get the observed task container to pass to the plugin.
+     *
+     * @return the task container
+     */
+    @NotNull TaskContainer tasks() {
+      return this.tasks;
+    }
+
+    private <T> T wrap(final Class<T> type, final T delegate) {
+      final InvocationHandler handler = (proxy, method, args) -> {
+        if (EagerTaskDetector.isEager(method, args)) {
+          this.record(type, method, args);
+        }
+        final @Nullable Object result;
+        try {
+          result = method.invoke(delegate, args);
+        } catch (final InvocationTargetException ex) {
+          throw ex.getCause();
+        }
+
+        // collections derived from the container, such as those returned by withType or matching, are observed as well
+        final Class<?> returnType = method.getReturnType();
+        if (result != null && result != delegate && returnType.isInterface() && DomainObjectCollection.class.isAssignableFrom(returnType)) {
+          return this.wrap(EagerTaskDetector.<Object>cast(returnType), result);
+        }
+        return result == delegate ? proxy : result;
+      };
+      return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+
+    private void record(final Class<?> type, final Method method, final Object @Nullable[] args) {
+      final StringBuilder call = new StringBuilder(type.getSimpleName()).append('.').append(method.getName()).append('(');
+      if (args != null && args.length > 0 && args[0] instanceof CharSequence) {
+        call.append('"').append(args[0]).append('"');
+      }
+      call.append(')');
+      final @Nullable StackTraceElement caller = EagerTaskDetector.caller();
+      if (caller != null) {
+        call.append(" at ").append(caller);
+      }
+      this.calls.add(call.toString());
+    }
+
+    /**
+     * Report any eager calls made while the plugin was applied.
+     *
+     * @throws GradleException if eager calls were made and the detector is configured to fail
+     */
+    void finish() {
+      if (this.calls.isEmpty()) {
+        return;
+      }
+
+      final StringBuilder message = new StringBuilder("The plugin ").append(this.plugin.getClass().getName())
+        .append(" created or realized tasks eagerly while being applied to ").append(this.project.getDisplayName()).append(':');
+      for (final String call : this.calls) {
+        message.append("\n    ").append(call);
+      }
+      message.append("\nUse register, named and configureEach to configure tasks lazily.");
+      if (this.fail) {
+        throw new GradleException(message.toString());
+      }
+      LOGGER.warn(message.toString());
+    }
+  }
+
+  private static boolean isEager(final Method method, final Object @Nullable[] args) {
+    if (EAGER_METHODS.contains(method.getName())) {
+      return true;
+    }
+    // withType(Class) is lazy, but the overloads taking a configuration action apply it to every matching task immediately
+    return method.getName().equals("withType") && args != null && args.length > 1;
+  }
+
+  // the first frame outside of the task container wrappers
+  static @Nullable StackTraceElement caller() {
+    for (final StackTraceElement element : new Throwable().getStackTrace()) {
+      final String className = element.getClassName();
+      if (className.startsWith(EagerTaskDetector.class.getName())
+        || className.startsWith(ConfigurationCacheChecker.class.getName())
+        || className.startsWith("com.sun.proxy.")
+        || className.startsWith("jdk.proxy")
+        || className.startsWith("java.lang.reflect.")
+        || className.startsWith("jdk.internal.reflect.")
+        || className.startsWith("sun.reflect.")) {
+        continue;
+      }
+      return element;
+    }
+    return null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> Class<T> cast(final Class<?> type) {
+    return (Class<T>) type;
+  }
+}
@@ -23,7 +23,15 @@
  */
 package net.kyori.mammoth;
 
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import org.gradle.api.plugins.ExtensionContainer;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.ProviderFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Helpers for working with extensions.
@@ -31,6 +39,9 @@ import org.gradle.api.plugins.ExtensionContainer;
  * @since 1.0.0
  */
 public final class Extensions {
+  // weakly keyed so that a container, and the project it belongs to, is not kept alive once its build is done
+  private static final Map<ExtensionContainer, LazyRegistry> LAZY_REGISTRIES = Collections.synchronizedMap(new WeakHashMap<>());
+
   private Extensions() {
   }
 
@@ -45,7 +56,10 @@ public final class Extensions {
    * @since 1.0.0
    */
   public static <E> E findOrCreate(final ExtensionContainer extensions, final String name, final Class<E> type) {
-    E extension = extensions.findByType(type);
+    E extension = Extensions.find(extensions, name, type);
+    if (extension == null) {
+      extension = extensions.findByType(type);
+    }
     if (extension == null) {
       extension = extensions.create(name, type);
     }
@@ -65,10 +79,140 @@ public final class Extensions {
    */
   @SuppressWarnings("unchecked")
   public static <E> E findOrCreate(final ExtensionContainer extensions, final String name, final Class<? super E> publicType, final Class<E> implementationType) {
-    E extension = (E) extensions.findByType(publicType);
+    E extension = (E) Extensions.find(extensions, name, publicType);
+    if (extension == null) {
+      extension = (E) extensions.findByType(publicType);
+    }
     if (extension == null) {
       extension = (E) extensions.create(publicType, name, implementationType);
     }
     return extension;
   }
+
+  /**
+   * Find an extension by name, if it has the expected type.
+   *
+   * <p>Unlike {@link ExtensionContainer#findByType(Class)}, this is a single lookup rather than a scan of every
+   * extension in the container. Extensions registered with {@link #findOrRegister(ExtensionContainer, ProviderFactory, String, Class)}
+   * are created if they have not been yet.</p>
+   *
+   * @param <E> extension type
+   * @param extensions extension container to search
+   * @param name extension name
+   * @param type the expected extension type
+   * @return the extension, or {@code null} if there is no extension with that name and type
+   * @since 1.5.0
+   */
+  public static <E> @Nullable E find(final @NotNull ExtensionContainer extensions, final @NotNull String name, final @NotNull Class<E> type) {
+    final @Nullable Object extension = extensions.findByName(name);
+    if (extension != null) {
+      return type.isInstance(extension) ? type.cast(extension) : null;
+    }
+
+    final @Nullable LazyRegistry registry = LAZY_REGISTRIES.get(extensions);
+    final @Nullable LazyExtension<?> lazy = registry == null ? null : registry.extensions.get(name);
+    if (lazy == null || !type.isAssignableFrom(lazy.publicType)) {
+      return null;
+    }
+    return type.cast(lazy.get(extensions));
+  }
+
+  /**
+   * Register an extension that will only be created when it is first accessed, or get the existing registration.
+   *
+   * <p>The extension is created and decorated by the container when the returned provider is first queried, or when
+   * it is looked up with {@link #find(ExtensionContainer, String, Class)} or {@code findOrCreate}. Until then, it is not
+   * visible in the container, so build scripts cannot configure it through the DSL. This suits extensions that are
+   * mostly read by plugins, and only sometimes configured.</p>
+   *
+   * @param <E> extension type
+   * @param extensions extension container to register with
+   * @param providers a provider factory
+   * @param name extension name
+   * @param type type to create the extension under
+   * @return a provider of the extension
+   * @throws IllegalArgumentException if an extension is already registered under the name with an incompatible type
+   * @since 1.5.0
+   */
+  public static <E> @NotNull Provider<E> findOrRegister(final @NotNull ExtensionContainer extensions, final @NotNull ProviderFactory providers, final @NotNull String name, final @NotNull Class<E> type) {
+    return Extensions.findOrRegister(extensions, providers, name, type, type);
+  }
+
+  /**
+   * Register an extension that will only be created when it is first accessed, or get the existing registration.
+   *
+   * @param <E> extension type
+   * @param extensions extension container to register with
+   * @param providers a provider factory
+   * @param name extension name
+   * @param publicType type to expose to extension consumers
+   * @param implementationType type to use to create the extension itself
+   * @return a provider of the extension
+   * @throws IllegalArgumentException if an extension is already registered under the name with an incompatible type
+   * @see #findOrRegister(ExtensionContainer, ProviderFactory, String, Class)
+   * @since 1.5.0
+   */
+  @SuppressWarnings("unchecked")
+  public static <E> @NotNull Provider<E> findOrRegister(
+    final @NotNull ExtensionContainer extensions,
+    final @NotNull ProviderFactory providers,
+    final @NotNull String name,
+    final @NotNull Class<? super E> publicType,
+    final @NotNull Class<E> implementationType
+  ) {
+    final @Nullable Object existing = extensions.findByName(name);
+    if (existing != null) {
+      if (!publicType.isInstance(existing)) {
+        throw new IllegalArgumentException("Extension " + name + " already exists with type " + existing.getClass().getName() + ", which is not a " + publicType.getName());
+      }
+      return providers.provider(() -> (E) existing);
+    }
+
+    final LazyRegistry registry = LAZY_REGISTRIES.computeIfAbsent(extensions, e -> new LazyRegistry());
+    final LazyExtension<?> lazy = registry.extensions.computeIfAbsent(name, n -> new LazyExtension<>(n, publicType, implementationType));
+    if (!publicType.isAssignableFrom(lazy.publicType) || !implementationType.isAssignableFrom(lazy.implementationType)) {
+      throw new IllegalArgumentException("Extension " + name + " is already registered with type " + lazy.implementationType.getName() + ", which is not a " + implementationType.getName());
+    }
+    return providers.provider(() -> (E) lazy.get(extensions));
+  }
+
+  /**
+   * Extensions registered lazily with a single container, by name.
+   *
+   * <p>Registrations must not refer back to their container, which would keep it from being weakly collected.</p>
+   */
+  static final class LazyRegistry {
+    final Map<String, LazyExtension<?>> extensions = new ConcurrentHashMap<>();
+  }
+
+  static final class LazyExtension<E> {
+    private final String name;
+    final Class<? super E> publicType;
+    final Class<E> implementationType;
+    private volatile @Nullable Object extension;
+
+    LazyExtension(final String name, final Class<? super E> publicType, final Class<E> implementationType) {
+      this.name = name;
+      this.publicType = publicType;
+      this.implementationType = implementationType;
+    }
+
+    @NotNull Object get(final ExtensionContainer container) {
+      @Nullable Object result = this.extension;
+      if (result == null) {
+        synchronized (this) {
+          result = this.extension;
+          if (result == null) {
+            // another plugin may have created the extension eagerly in the meantime
+            result = container.findByName(this.name);
+            if (result == null) {
+              result = container.create(this.publicType, this.name, this.implementationType);
+            }
+            this.extension = result;
+          }
+        }
+      }
+      return result;
+    }
+  }
 }
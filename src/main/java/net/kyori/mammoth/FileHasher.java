@@ -0,0 +1,379 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Computes content hashes of files, in parallel.
+ *
+ * <p>Hashes are remembered for as long as a file's size and modification time are unchanged. When opened with a cache
+ * file, remembered hashes are loaded from and saved back to that file, so files unchanged since an earlier build are
+ * never read again. Directories are hashed by their contents, in path order.</p>
+ *
+ * <p>A file modified within the last two seconds could still be changed again without its modification time moving,
+ * on file systems with coarse timestamps. Such files are hashed every time rather than remembered.</p>
+ *
+ * <p>Saving merges with whatever the cache file holds at that point, under a file lock, so that several processes may
+ * share one cache file. Hashes are hex-encoded SHA-256 digests.</p>
+ *
+ * @since 1.5.0
+ */
+public final class FileHasher implements AutoCloseable {
+  private static final Logger LOGGER = Logging.getLogger(FileHasher.class);
+  private static final String SHARED_CACHE = "net.kyori.mammoth.fileHasher";
+  private static final int MAGIC = 0x6d464831; // mFH1
+  private static final long STREAM_THRESHOLD = 256 * 1024;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final long MODIFICATION_GRANULARITY = 2000;
+  // file locks are held per process, so saves from within this process must also be serialized
+  private static final Object SAVE_LOCK = new Object();
+
+  private final @Nullable Path cacheFile;
+  private final Map<String, ClassPathFingerprinter.FileHash> hashes = new ConcurrentHashMap<>();
+  private volatile boolean dirty;
+
+  private FileHasher(final @Nullable Path cacheFile) {
+    this.cacheFile = cacheFile;
+  }
+
+  /**
+   * Create a hasher that only remembers hashes in memory.
+   *
+   * @return a new hasher
+   * @since 1.5.0
+   */
+  public static @NotNull FileHasher inMemory() {
+    return new FileHasher(null);
+  }
+
+  /**
+   * Create a hasher that remembers hashes in a cache file, saved when the hasher is {@link #close() closed}.
+   *
+   * <p>A missing or unreadable cache file is treated as empty.</p>
+   *
+   * @param cacheFile the cache file
+   * @return a new hasher
+   * @since 1.5.0
+   */
+  public static @NotNull FileHasher open(final @NotNull Path cacheFile) {
+    final FileHasher hasher = new FileHasher(requireNonNull(cacheFile, "cacheFile"));
+    hasher.load();
+    return hasher;
+  }
+
+  /**
+   * Get the hasher shared by every project in a build.
+   *
+   * <p>Its cache file is kept in the Gradle user home, and saved once the build finishes. Plugins that bring their own
+   * copy of mammoth each get their own hasher, which share the cache file.</p>
+   *
+   * @param gradle the build
+   * @return the shared hasher
+   * @since 1.5.0
+   */
+  public static @NotNull FileHasher shared(final @NotNull Gradle gradle) {
+    final Path cacheFile = requireNonNull(gradle, "gradle").getGradleUserHomeDir().toPath().resolve("caches/mammoth/file-hashes.bin");
+    return BuildServices.<Path, FileHasher>sharedCache(gradle, SHARED_CACHE, 1).get(cacheFile, FileHasher::open);
+  }
+
+  /**
+   * Hash every file in a collection.
+   *
+   * <p>Directories are expanded to the regular files within them.</p>
+   *
+   * @param files the files to hash
+   * @return the hash of each regular file, in collection order
+   * @throws IOException if any file could not be read
+   * @since 1.5.0
+   */
+  public @NotNull Map<File, String> hash(final @NotNull FileCollection files) throws IOException {
+    final List<Path> expanded = new ArrayList<>();
+    for (final File root : requireNonNull(files, "files")) {
+      if (root.isDirectory()) {
+        expanded.addAll(FileHasher.walk(root.toPath()));
+      } else if (root.isFile()) {
+        expanded.add(root.toPath());
+      }
+    }
+    final List<byte[]> hashes = this.hashAll(expanded);
+    final Map<File, String> result = new LinkedHashMap<>();
+    for (int i = 0; i < expanded.size(); i++) {
+      result.put(expanded.get(i).toFile(), ClassPathFingerprinter.hex(hashes.get(i)));
+    }
+    return result;
+  }
+
+  /**
+   * Compute a single fingerprint for the contents of a collection.
+   *
+   * <p>The fingerprint covers the order of the collection and the relative paths of files within directories,
+   * but not the locations of the collection's elements.</p>
+   *
+   * @param files the files to fingerprint
+   * @return a hex-encoded hash of the collection
+   * @throws IOException if any file could not be read
+   * @since 1.5.0
+   */
+  public @NotNull String fingerprint(final @NotNull FileCollection files) throws IOException {
+    final List<Path> roots = new ArrayList<>();
+    final List<Path> expanded = new ArrayList<>();
+    final List<Integer> ends = new ArrayList<>();
+    for (final File root : requireNonNull(files, "files")) {
+      final Path path = root.toPath();
+      roots.add(path);
+      if (root.isDirectory()) {
+        expanded.addAll(FileHasher.walk(path));
+      } else if (root.isFile()) {
+        expanded.add(path);
+      }
+      ends.add(expanded.size());
+    }
+    final List<byte[]> hashes = this.hashAll(expanded);
+
+    final MessageDigest digest = ClassPathFingerprinter.digest();
+    int file = 0;
+    for (int i = 0; i < roots.size(); i++) {
+      final Path root = roots.get(i);
+      for (; file < ends.get(i); file++) {
+        final Path child = expanded.get(file);
+        if (!child.equals(root)) {
+          digest.update(root.relativize(child).toString().replace(File.separatorChar, '/').getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update(hashes.get(file));
+      }
+      digest.update((byte) 0);
+    }
+    return ClassPathFingerprinter.hex(digest.digest());
+  }
+
+  /**
+   * Hash a single regular file.
+   *
+   * @param file the file
+   * @return the hex-encoded hash of the file
+   * @throws IOException if the file could not be read
+   * @since 1.5.0
+   */
+  public @NotNull String hash(final @NotNull Path file) throws IOException {
+    return ClassPathFingerprinter.hex(this.hashFile(requireNonNull(file, "file")));
+  }
+
+  /**
+   * Save remembered hashes to the cache file, if this hasher has one and new files have been hashed.
+   *
+   * @throws IOException if the cache file could not be written
+   * @since 1.5.0
+   */
+  @Override
+  public void close() throws IOException {
+    if (this.cacheFile == null || !this.dirty) {
+      return;
+    }
+    this.dirty = false;
+    final Path directory = this.cacheFile.getParent();
+    Files.createDirectories(directory);
+    synchronized (SAVE_LOCK) {
+      try (final FileChannel lock = FileChannel.open(directory.resolve(this.cacheFile.getFileName() + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+        FileHasher.lock(lock);
+        // another process may have saved since this hasher was opened, so keep what it found too
+        final Map<String, ClassPathFingerprinter.FileHash> merged = FileHasher.read(this.cacheFile);
+        merged.putAll(this.hashes);
+        this.save(merged);
+      }
+    }
+  }
+
+  private static void lock(final FileChannel channel) throws IOException {
+    while (true) {
+      try {
+        channel.lock();
+        return;
+      } catch (final OverlappingFileLockException ex) {
+        // another copy of this class, loaded by a different plugin, is saving from this process
+        try {
+          Thread.sleep(10);
+        } catch (final InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting to save file hash cache");
+        }
+      }
+    }
+  }
+
+  // must hold the save lock
+  private void save(final Map<String, ClassPathFingerprinter.FileHash> hashes) throws IOException {
+    final Path cacheFile = requireNonNull(this.cacheFile, "cacheFile");
+    final Path temp = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName().toString(), ".tmp");
+    try {
+      try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        out.writeInt(MAGIC);
+        for (final Map.Entry<String, ClassPathFingerprinter.FileHash> entry : hashes.entrySet()) {
+          // forget files that are gone, so the cache does not grow forever
+          if (!Files.exists(new File(entry.getKey()).toPath())) {
+            continue;
+          }
+          final ClassPathFingerprinter.FileHash hash = entry.getValue();
+          out.writeBoolean(true);
+          out.writeUTF(entry.getKey());
+          out.writeLong(hash.size);
+          out.writeLong(hash.lastModified);
+          out.writeByte(hash.hash.length);
+          out.write(hash.hash);
+        }
+        out.writeBoolean(false);
+      }
+      try {
+        Files.move(temp, cacheFile, StandardCopyOption.ATOMIC_MOVE);
+      } catch (final AtomicMoveNotSupportedException ex) {
+        Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private void load() {
+    if (this.cacheFile != null) {
+      this.hashes.putAll(FileHasher.read(this.cacheFile));
+    }
+  }
+
+  private static Map<String, ClassPathFingerprinter.FileHash> read(final Path cacheFile) {
+    final Map<String, ClassPathFingerprinter.FileHash> hashes = new LinkedHashMap<>();
+    if (!Files.isRegularFile(cacheFile)) {
+      return hashes;
+    }
+    try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+      if (in.readInt() != MAGIC) {
+        return hashes;
+      }
+      while (in.readBoolean()) {
+        final String path = in.readUTF();
+        final long size = in.readLong();
+        final long lastModified = in.readLong();
+        final byte[] hash = new byte[in.readUnsignedByte()];
+        in.readFully(hash);
+        hashes.put(path, new ClassPathFingerprinter.FileHash(size, lastModified, hash));
+      }
+    } catch (final EOFException ex) {
+      LOGGER.debug("File hash cache {} was truncated, keeping what could be read", cacheFile);
+    } catch (final IOException ex) {
+      LOGGER.debug("Failed to read file hash cache {}", cacheFile, ex);
+    }
+    return hashes;
+  }
+
+  private List<byte[]> hashAll(final List<Path> files) throws IOException {
+    try {
+      return files.parallelStream()
+        .map(file -> {
+          try {
+            return this.hashFile(file);
+          } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+          }
+        })
+        .collect(Collectors.toList());
+    } catch (final UncheckedIOException ex) {
+      throw ex.getCause();
+    }
+  }
+
+  private byte[] hashFile(final Path file) throws IOException {
+    final String key = file.toAbsolutePath().toString();
+    final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+    final long size = attributes.size();
+    final long lastModified = attributes.lastModifiedTime().toMillis();
+    final ClassPathFingerprinter.@Nullable FileHash existing = this.hashes.get(key);
+    if (existing != null && existing.size == size && existing.lastModified == lastModified) {
+      return existing.hash;
+    }
+
+    final MessageDigest digest = ClassPathFingerprinter.digest();
+    if (size < STREAM_THRESHOLD) {
+      digest.update(Files.readAllBytes(file));
+    } else {
+      // mapping would be faster, but a mapping keeps the file locked on Windows until it is garbage collected
+      final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        while (channel.read(buffer) != -1) {
+          buffer.flip();
+          digest.update(buffer);
+          buffer.clear();
+        }
+      }
+    }
+    final byte[] hash = digest.digest();
+    if (Math.abs(System.currentTimeMillis() - lastModified) >= MODIFICATION_GRANULARITY) {
+      this.hashes.put(key, new ClassPathFingerprinter.FileHash(size, lastModified, hash));
+      this.dirty = true;
+    }
+    return hash;
+  }
+
+  private static List<Path> walk(final Path directory) throws IOException {
+    final List<Path> children;
+    try (final Stream<Path> walk = Files.walk(directory)) {
+      children = walk.filter(Files::isRegularFile).collect(Collectors.toCollection(ArrayList::new));
+    }
+    Collections.sort(children);
+    return children;
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.util.function.BooleanSupplier;
+import org.gradle.util.GradleVersion;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A feature of the running Gradle version, evaluated lazily and remembered for the lifetime of the process.
+ *
+ * <p>Each capability remembers its own answer, so capabilities are meant to be kept in static fields and shared
+ * from there rather than created for every check. Creating a capability is cheap: nothing is evaluated until
+ * {@link #available()} is first called.</p>
+ *
+ * <pre>{@code
+ * static final GradleCapability HAS_NEW_API = GradleCapability.method(Project.class, "getLayout")
+ *   .or(GradleCapability.minimumVersion("8.0"));
+ * }</pre>
+ *
+ * @since 1.5.0
+ */
+public final class GradleCapability {
+  private static volatile @Nullable GradleVersion currentBaseVersion;
+
+  private final String key;
+  private final BooleanSupplier probe;
+  private volatile @Nullable Boolean available;
+
+  private GradleCapability(final String key, final BooleanSupplier probe) {
+    this.key = key;
+    this.probe = probe;
+  }
+
+  /**
+   * Create a capability with a custom probe.
+   *
+   * @param key a key describing the feature
+   * @param probe a check for whether the feature is available, evaluated at most once
+   * @return the capability
+   * @since 1.5.0
+   */
+  public static @NotNull GradleCapability of(final @NotNull String key, final @NotNull BooleanSupplier probe) {
+    return new GradleCapability(requireNonNull(key, "key"), requireNonNull(probe, "probe"));
+  }
+
+  /**
+   * Get a capability that is available when the running Gradle version is at least a certain version.
+   *
+   * <p>Snapshot and release candidate information is ignored, so a snapshot of a release counts as that release.</p>
+   *
+   * @param version the minimum version, such as {@code 7.6}
+   * @return the capability
+   * @since 1.5.0
+   */
+  public static @NotNull GradleCapability minimumVersion(final @NotNull String version) {
+    requireNonNull(version, "version");
+    return GradleCapability.of("gradle>=" + version, () -> GradleCapability.currentBaseVersion().compareTo(GradleVersion.version(version)) >= 0);
+  }
+
+  /**
+   * Get a capability that is available when a public method is present.
+   *
+   * @param owner the class declaring or inheriting the method
+   * @param name the method name
+   * @param parameterTypes the parameter types of the method
+   * @return the capability
+   * @since 1.5.0
+   */
+  public static @NotNull GradleCapability method(final @NotNull Class<?> owner, final @NotNull String name, final @NotNull Class<?> @NotNull... parameterTypes) {
+    requireNonNull(owner, "owner");
+    requireNonNull(name, "name");
+    final Class<?>[] parameters = parameterTypes.clone();
+    final StringBuilder key = new StringBuilder("method:").append(owner.getName()).append('#').append(name).append('(');
+    for (int i = 0; i < parameters.length; i++) {
+      if (i > 0) {
+        key.append(',');
+      }
+      key.append(parameters[i].getName());
+    }
+    key.append(')');
+    return GradleCapability.of(key.toString(), () -> {
+      try {
+        owner.getMethod(name, parameters);
+        return true;
+      } catch (final NoSuchMethodException ex) {
+        return false;
+      }
+    });
+  }
+
+  /**
+   * Get a capability that is available when a class is present in the Gradle API.
+   *
+   * @param className the binary name of the class
+   * @return the capability
+   * @since 1.5.0
+   */
+  public static @NotNull GradleCapability type(final @NotNull String className) {
+    requireNonNull(className, "className");
+    return GradleCapability.of("type:" + className, () -> {
+      try {
+        Class.forName(className, false, GradleVersion.class.getClassLoader());
+        return true;
+      } catch (final ClassNotFoundException | LinkageError ex) {
+        return false;
+      }
+    });
+  }
+
+  /**
+   * Get a capability that is available only when both this capability and another are available.
+   *
+   * @param other the other capability
+   * @return the combined capability
+   * @since 1.5.0
+   */
+  public @NotNull GradleCapability and(final @NotNull GradleCapability other) {
+    requireNonNull(other, "other");
+    return GradleCapability.of("(" + this.key + ")&(" + other.key + ")", () -> this.available() && other.available());
+  }
+
+  /**
+   * Get a capability that is available when either this capability or another is available.
+   *
+   * @param other the other capability
+   * @return the combined capability
+   * @since 1.5.0
+   */
+  public @NotNull GradleCapability or(final @NotNull GradleCapability other) {
+    requireNonNull(other, "other");
+    return GradleCapability.of("(" + this.key + ")|(" + other.key + ")", () -> this.available() || other.available());
+  }
+
+  /**
+   * Get a capability that is available when this capability is not.
+   *
+   * @return the negated capability
+   * @since 1.5.0
+   */
+  public @NotNull GradleCapability negate() {
+    return GradleCapability.of("!(" + this.key + ")", () -> !this.available());
+  }
+
+  /**
+   * Get the key describing this capability.
+   *
+   * @return the key
+   * @since 1.5.0
+   */
+  public @NotNull String key() {
+    return this.key;
+  }
+
+  /**
+   * Get whether this capability is available, evaluating it if it has not been evaluated yet.
+   *
+   * @return whether the capability is available
+   * @since 1.5.0
+   */
+  public boolean available() {
+    @Nullable Boolean result = this.available;
+    if (result == null) {
+      // probes are idempotent, so racing threads evaluating one twice is harmless
+      result = this.probe.getAsBoolean();
+      this.available = result;
+    }
+    return result;
+  }
+
+  static @NotNull GradleVersion currentBaseVersion() {
+    @Nullable GradleVersion result = currentBaseVersion;
+    if (result == null) {
+      result = GradleVersion.current().getBaseVersion();
+      currentBaseVersion = result;
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "GradleCapability{" + this.key + "=" + (this.available == null ? "?" : this.available) + "}";
+  }
+}
@@ -23,6 +23,8 @@
  */
 package net.kyori.mammoth;
 
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import org.gradle.api.GradleException;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
@@ -31,27 +33,41 @@ import org.gradle.util.GradleVersion;
 import org.jetbrains.annotations.Nullable;
 
 final class GradleCompat {
-  static final boolean SHOULD_USE_CONVENTION = hasMethod(Project.class, "getConvention") && !hasMinGradleVersion("8.2");
-  static final boolean HAS_FOR_USE_AT_CONFIGURATION_TIME = hasMethod(Provider.class, "forUseAtConfigurationTime") && !hasMinGradleVersion("7.6");
+  static final GradleCapability SHOULD_USE_CONVENTION = GradleCapability.method(Project.class, "getConvention")
+    .and(GradleCapability.minimumVersion("8.2").negate());
+  static final GradleCapability HAS_FOR_USE_AT_CONFIGURATION_TIME = GradleCapability.method(Provider.class, "forUseAtConfigurationTime")
+    .and(GradleCapability.minimumVersion("7.6").negate());
+
+  // the Gradle version each plugin class last passed its minimum version check on
+  private static final ClassValue<AtomicReference<GradleVersion>> CHECKED_VERSIONS = new ClassValue<AtomicReference<GradleVersion>>() {
+    @Override
+    protected AtomicReference<GradleVersion> computeValue(final Class<?> type) {
+      return new AtomicReference<>();
+    }
+  };
 
   private GradleCompat() {
   }
 
-  private static boolean hasMethod(final Class<?> clazz, final String name, final Class<?>... args) {
-    try {
-      clazz.getMethod(name, args);
-      return true;
-    } catch (final NoSuchMethodException ex) {
-      return false;
+  /**
+   * Check that the running Gradle version is at least the minimum version of a plugin, only evaluating the minimum
+   * the first time a plugin class is applied on each Gradle version.
+   *
+   * @param plugin the plugin being applied
+   * @param minimum a supplier of the plugin's minimum version
+   * @param targetDisplayName a description of the plugin target, for error messages
+   */
+  static void requireMinimumVersion(final Plugin<?> plugin, final Supplier<@Nullable GradleVersion> minimum, final String targetDisplayName) {
+    final AtomicReference<GradleVersion> checked = CHECKED_VERSIONS.get(plugin.getClass());
+    final GradleVersion current = GradleVersion.current();
+    if (current.equals(checked.get())) {
+      return;
     }
+    GradleCompat.requireMinimumVersion(minimum.get(), plugin, targetDisplayName);
+    checked.set(current);
   }
 
-  static boolean hasMinGradleVersion(final String version) {
-    // compare releases, stripping snapshot info
-    return GradleVersion.current().getBaseVersion().compareTo(GradleVersion.version(version)) >= 0;
-  }
-
-  static void requireMinimumVersion(final @Nullable GradleVersion minimum, final Plugin<?> plugin, final String targetDisplayName) {
+  private static void requireMinimumVersion(final @Nullable GradleVersion minimum, final Plugin<?> plugin, final String targetDisplayName) {
     // Check version
     if (minimum != null) {
       final GradleVersion current = GradleVersion.current();
@@ -0,0 +1,402 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.FileType;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.LocalState;
+import org.gradle.work.ChangeType;
+import org.gradle.work.FileChange;
+import org.gradle.work.InputChanges;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Bookkeeping for incremental tasks, persisted between executions.
+ *
+ * <p>For each input file (a unit), the state records the output files produced from it and the other files it
+ * depends on. Given the changes to a task's inputs, it then works out which units have to be rebuilt (those that
+ * changed, and those that transitively depend on a changed or removed file) and which outputs are stale.</p>
+ *
+ * <p>State must be kept in a file that Gradle treats as the task's {@link LocalState local state}, so that it is
+ * removed whenever the task's outputs are replaced without the task running, such as when they are loaded from the
+ * build cache. State kept elsewhere would describe outputs from a different execution.</p>
+ *
+ * <p>A typical task:</p>
+ *
+ * <pre>
+ * &#64;LocalState
+ * public abstract RegularFileProperty getIncrementalState();
+ *
+ * &#64;TaskAction
+ * public void generate(final InputChanges inputChanges) throws IOException {
+ *   final IncrementalState state = IncrementalState.load(this.getIncrementalState());
+ *   final IncrementalState.Plan plan = state.plan(inputChanges, this.getSources());
+ *   plan.deleteStaleOutputs();
+ *   for (final File source : plan.rebuild()) {
+ *     state.recordOutputs(source, generate(source));
+ *   }
+ *   state.save();
+ * }
+ * </pre>
+ *
+ * <p>Instances may be updated from several threads, such as from worker actions.</p>
+ *
+ * @since 1.5.0
+ */
+public final class IncrementalState {
+  private static final Logger LOGGER = Logging.getLogger(IncrementalState.class);
+  private static final int MAGIC = 0x6d495331; // mIS1
+
+  private final Path file;
+  private final Map<String, Unit> units = new LinkedHashMap<>(); // guarded by this
+  private final boolean loaded;
+
+  private IncrementalState(final Path file, final boolean loaded) {
+    this.file = file;
+    this.loaded = loaded;
+  }
+
+  /**
+   * Load state from a file, which should be a {@link LocalState local state} property of the task.
+   *
+   * <p>A missing or unreadable file results in empty state, which will not allow an incremental rebuild.</p>
+   *
+   * @param file the state file
+   * @return the state
+   * @since 1.5.0
+   */
+  public static @NotNull IncrementalState load(final @NotNull Provider<RegularFile> file) {
+    return IncrementalState.load(requireNonNull(file, "file").get().getAsFile().toPath());
+  }
+
+  /**
+   * Load state from a file.
+   *
+   * <p>A missing or unreadable file results in empty state, which will not allow an incremental rebuild.</p>
+   *
+   * @param file the state file
+   * @return the state
+   * @since 1.5.0
+   */
+  public static @NotNull IncrementalState load(final @NotNull Path file) {
+    requireNonNull(file, "file");
+    if (!Files.isRegularFile(file)) {
+      return new IncrementalState(file, false);
+    }
+    final IncrementalState state = new IncrementalState(file, true);
+    try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        return new IncrementalState(file, false);
+      }
+      final String[] paths = new String[in.readInt()];
+      for (int i = 0; i < paths.length; i++) {
+        paths[i] = in.readUTF();
+      }
+      final int units = in.readInt();
+      for (int i = 0; i < units; i++) {
+        final Unit unit = state.unit(paths[in.readInt()]);
+        IncrementalState.readPaths(in, paths, unit.outputs);
+        IncrementalState.readPaths(in, paths, unit.dependencies);
+      }
+    } catch (final IOException | RuntimeException ex) {
+      LOGGER.debug("Failed to read incremental state {}, a full rebuild is required", file, ex);
+      return new IncrementalState(file, false);
+    }
+    return state;
+  }
+
+  /**
+   * Work out what has to be rebuilt for a set of changes, forgetting what is known about those units.
+   *
+   * <p>If the changes are not incremental, or there is no usable earlier state, every file in {@code inputs} must be
+   * rebuilt, and every previously known output is stale. In the latter case outputs created by earlier executions may
+   * not be known, so tasks should clean their output directories when the plan is not {@link Plan#incremental()}.</p>
+   *
+   * @param changes the changes to the task's inputs
+   * @param inputs the incremental input to plan for, as passed to {@link InputChanges#getFileChanges(FileCollection)}
+   * @return the plan
+   * @since 1.5.0
+   */
+  public synchronized @NotNull Plan plan(final @NotNull InputChanges changes, final @NotNull FileCollection inputs) {
+    requireNonNull(inputs, "inputs");
+    if (!requireNonNull(changes, "changes").isIncremental() || !this.loaded) {
+      final Set<File> stale = new LinkedHashSet<>();
+      for (final Unit unit : this.units.values()) {
+        for (final String output : unit.outputs) {
+          stale.add(new File(output));
+        }
+      }
+      this.units.clear();
+      return new Plan(false, new LinkedHashSet<>(inputs.getAsFileTree().getFiles()), stale);
+    }
+
+    final Set<String> changed = new LinkedHashSet<>();
+    final Set<String> removed = new LinkedHashSet<>();
+    for (final FileChange change : changes.getFileChanges(inputs)) {
+      if (change.getFileType() == FileType.DIRECTORY) {
+        continue;
+      }
+      final String path = change.getFile().getAbsolutePath();
+      if (change.getChangeType() == ChangeType.REMOVED) {
+        removed.add(path);
+      } else {
+        changed.add(path);
+      }
+    }
+
+    // everything that transitively depends on a changed or removed file must be rebuilt too
+    final Map<String, List<String>> dependents = this.dependents();
+    final Set<String> affected = new LinkedHashSet<>(changed);
+    final Deque<String> queue = new ArrayDeque<>(changed);
+    queue.addAll(removed);
+    while (!queue.isEmpty()) {
+      for (final String dependent : dependents.getOrDefault(queue.remove(), Collections.emptyList())) {
+        if (!removed.contains(dependent) && affected.add(dependent)) {
+          queue.add(dependent);
+        }
+      }
+    }
+
+    final Set<File> stale = new LinkedHashSet<>();
+    final Set<File> rebuild = new LinkedHashSet<>();
+    for (final String path : affected) {
+      rebuild.add(new File(path));
+    }
+    for (final String path : IncrementalState.concat(affected, removed)) {
+      final @Nullable Unit unit = this.units.remove(path);
+      if (unit != null) {
+        for (final String output : unit.outputs) {
+          stale.add(new File(output));
+        }
+      }
+    }
+    return new Plan(true, rebuild, stale);
+  }
+
+  /**
+   * Record the outputs produced from a unit, in addition to any already recorded.
+   *
+   * @param input the unit
+   * @param outputs the outputs produced from it
+   * @since 1.5.0
+   */
+  public synchronized void recordOutputs(final @NotNull File input, final @NotNull Collection<File> outputs) {
+    final Unit unit = this.unit(requireNonNull(input, "input").getAbsolutePath());
+    for (final File output : requireNonNull(outputs, "outputs")) {
+      unit.outputs.add(output.getAbsolutePath());
+    }
+  }
+
+  /**
+   * Record the files a unit depends on, in addition to any already recorded.
+   *
+   * <p>When any of these files change or are removed, the unit will be rebuilt. Only changes to files in the
+   * incremental input passed to {@link #plan(InputChanges, FileCollection)} are seen.</p>
+   *
+   * @param input the unit
+   * @param dependencies the files it depends on
+   * @since 1.5.0
+   */
+  public synchronized void recordDependencies(final @NotNull File input, final @NotNull Collection<File> dependencies) {
+    final Unit unit = this.unit(requireNonNull(input, "input").getAbsolutePath());
+    for (final File dependency : requireNonNull(dependencies, "dependencies")) {
+      unit.dependencies.add(dependency.getAbsolutePath());
+    }
+  }
+
+  /**
+   * Save this state for the next execution of the task.
+   *
+   * @throws IOException if the state could not be written
+   * @since 1.5.0
+   */
+  public synchronized void save() throws IOException {
+    // every path is written once, and referred to by index
+    final Map<String, Integer> indices = new LinkedHashMap<>();
+    for (final Map.Entry<String, Unit> entry : this.units.entrySet()) {
+      indices.putIfAbsent(entry.getKey(), indices.size());
+      for (final String path : IncrementalState.concat(entry.getValue().outputs, entry.getValue().dependencies)) {
+        indices.putIfAbsent(path, indices.size());
+      }
+    }
+
+    Files.createDirectories(this.file.getParent());
+    final Path temp = Files.createTempFile(this.file.getParent(), this.file.getFileName().toString(), ".tmp");
+    try {
+      try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(indices.size());
+        for (final String path : indices.keySet()) {
+          out.writeUTF(path);
+        }
+        out.writeInt(this.units.size());
+        for (final Map.Entry<String, Unit> entry : this.units.entrySet()) {
+          out.writeInt(indices.get(entry.getKey()));
+          IncrementalState.writePaths(out, indices, entry.getValue().outputs);
+          IncrementalState.writePaths(out, indices, entry.getValue().dependencies);
+        }
+      }
+      try {
+        Files.move(temp, this.file, StandardCopyOption.ATOMIC_MOVE);
+      } catch (final AtomicMoveNotSupportedException ex) {
+        Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  // must hold lock on this
+  private Unit unit(final String path) {
+    return this.units.computeIfAbsent(path, p -> new Unit());
+  }
+
+  // must hold lock on this
+  private Map<String, List<String>> dependents() {
+    final Map<String, List<String>> dependents = new HashMap<>();
+    for (final Map.Entry<String, Unit> entry : this.units.entrySet()) {
+      for (final String dependency : entry.getValue().dependencies) {
+        dependents.computeIfAbsent(dependency, d -> new ArrayList<>()).add(entry.getKey());
+      }
+    }
+    return dependents;
+  }
+
+  private static Set<String> concat(final Set<String> a, final Set<String> b) {
+    final Set<String> result = new LinkedHashSet<>(a);
+    result.addAll(b);
+    return result;
+  }
+
+  private static void readPaths(final DataInputStream in, final String[] paths, final Set<String> into) throws IOException {
+    final int count = in.readInt();
+    for (int i = 0; i < count; i++) {
+      into.add(paths[in.readInt()]);
+    }
+  }
+
+  private static void writePaths(final DataOutputStream out, final Map<String, Integer> indices, final Set<String> paths) throws IOException {
+    out.writeInt(paths.size());
+    for (final String path : paths) {
+      out.writeInt(indices.get(path));
+    }
+  }
+
+  private static final class Unit {
+    final Set<String> outputs = new LinkedHashSet<>();
+    final Set<String> dependencies = new LinkedHashSet<>();
+  }
+
+  /**
+   * The work needed to bring a task's outputs up to date.
+   *
+   * @since 1.5.0
+   */
+  public static final class Plan {
+    private final boolean incremental;
+    private final Set<File> rebuild;
+    private final Set<File> staleOutputs;
+
+    Plan(final boolean incremental, final Set<File> rebuild, final Set<File> staleOutputs) {
+      this.incremental = incremental;
+      this.rebuild = Collections.unmodifiableSet(rebuild);
+      this.staleOutputs = Collections.unmodifiableSet(staleOutputs);
+    }
+
+    /**
+     * Get whether only part of the task's inputs have to be rebuilt.
+     *
+     * @return whether this plan is incremental
+     * @since 1.5.0
+     */
+    public boolean incremental() {
+      return this.incremental;
+    }
+
+    /**
+     * Get the units that have to be rebuilt.
+     *
+     * @return the units to rebuild
+     * @since 1.5.0
+     */
+    public @NotNull Set<File> rebuild() {
+      return this.rebuild;
+    }
+
+    /**
+     * Get the outputs that were produced from units that have been removed or have to be rebuilt.
+     *
+     * @return the stale outputs
+     * @since 1.5.0
+     */
+    public @NotNull Set<File> staleOutputs() {
+      return this.staleOutputs;
+    }
+
+    /**
+     * Delete every {@link #staleOutputs() stale output}.
+     *
+     * @return the number of files deleted
+     * @throws IOException if any output could not be deleted
+     * @since 1.5.0
+     */
+    public int deleteStaleOutputs() throws IOException {
+      int deleted = 0;
+      for (final File output : this.staleOutputs) {
+        if (Files.deleteIfExists(output.toPath())) {
+          deleted++;
+        }
+      }
+      return deleted;
+    }
+  }
+}
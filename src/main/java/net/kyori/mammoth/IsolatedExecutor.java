@@ -0,0 +1,295 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URLClassLoader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Runs tasks in-process, inside isolating class loaders shared through an {@link IsolatingClassLoaderCache}.
+ *
+ * <p>This is a lighter alternative to Gradle's workers for running many small tool invocations: unlike process
+ * isolation, no JVM is forked, and unlike classloader isolation, loaders are reused for as long as the cache
+ * retains them.</p>
+ *
+ * <p>Tasks are named by class, and are loaded and instantiated inside the isolated loader. A task must be a public
+ * class implementing {@link Runnable} or {@link Callable}, with either a public no-argument constructor, or a public
+ * constructor accepting the task's parameters. Parameters and results cross the loader boundary by serialization, so
+ * a parameters class may be present on both sides, while results must be of types visible to the parent of the
+ * isolated loader, such as JDK types. The thread context class loader is set to the isolated loader while a task runs.</p>
+ *
+ * <p>At most {@code parallelism} tasks run at once, on a pool of daemon platform threads. Virtual threads are not used:
+ * even on Java 24 and newer, where waiting on a monitor no longer pins a virtual thread, resolving a class or running
+ * a class initializer still pins it to its carrier, and tasks do plenty of both when they first run in a fresh
+ * isolated loader.</p>
+ *
+ * @since 1.5.0
+ */
+public final class IsolatedExecutor implements AutoCloseable {
+  private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+  private final IsolatingClassLoaderCache cache;
+  private final ExecutorService executor;
+
+  private IsolatedExecutor(final IsolatingClassLoaderCache cache, final ExecutorService executor) {
+    this.cache = cache;
+    this.executor = executor;
+  }
+
+  /**
+   * Create a new executor.
+   *
+   * <p>The cache is not owned by the executor, and will not be closed when the executor is closed.</p>
+   *
+   * @param cache the cache to acquire loaders from
+   * @param parallelism the maximum number of tasks to run at once
+   * @return a new executor
+   * @since 1.5.0
+   */
+  public static @NotNull IsolatedExecutor create(final @NotNull IsolatingClassLoaderCache cache, final int parallelism) {
+    requireNonNull(cache, "cache");
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism must be at least 1, but was " + parallelism);
+    }
+    return new IsolatedExecutor(cache, Executors.newFixedThreadPool(parallelism, IsolatedExecutor.threadFactory()));
+  }
+
+  /**
+   * Run a {@link Runnable} task inside an isolated loader.
+   *
+   * @param loader a builder describing the loader to run the task in
+   * @param taskClassName the binary name of the task class
+   * @param parameters the parameters to pass to the task's constructor, or {@code null} to use its no-argument constructor
+   * @return a future completing once the task has run
+   * @throws IllegalArgumentException if the parameters could not be serialized
+   * @since 1.5.0
+   */
+  public @NotNull CompletableFuture<Void> run(final IsolatingClassLoader.@NotNull Builder loader, final @NotNull String taskClassName, final @Nullable Serializable parameters) {
+    return this.submit(loader, taskClassName, parameters, false).thenApply(ignored -> null);
+  }
+
+  /**
+   * Run a {@link Callable} task inside an isolated loader, returning its result.
+   *
+   * @param loader a builder describing the loader to run the task in
+   * @param taskClassName the binary name of the task class
+   * @param parameters the parameters to pass to the task's constructor, or {@code null} to use its no-argument constructor
+   * @param <R> the result type
+   * @return a future completing with a copy of the task's result
+   * @throws IllegalArgumentException if the parameters could not be serialized
+   * @since 1.5.0
+   */
+  @SuppressWarnings("unchecked")
+  public <R extends Serializable> @NotNull CompletableFuture<R> call(final IsolatingClassLoader.@NotNull Builder loader, final @NotNull String taskClassName, final @Nullable Serializable parameters) {
+    return this.submit(loader, taskClassName, parameters, true).thenApply(result -> (R) result);
+  }
+
+  private @NotNull CompletableFuture<Object> submit(
+    final IsolatingClassLoader.@NotNull Builder loader,
+    final @NotNull String taskClassName,
+    final @Nullable Serializable parameters,
+    final boolean callable
+  ) {
+    requireNonNull(taskClassName, "taskClassName");
+    // parameters are copied now, so later changes by the caller do not affect the task
+    final byte @Nullable[] serializedParameters;
+    try {
+      serializedParameters = parameters == null ? null : IsolatedExecutor.serialize(parameters);
+    } catch (final IOException ex) {
+      throw new IllegalArgumentException("Unable to serialize parameters " + parameters + " for task " + taskClassName, ex);
+    }
+
+    // classpaths are resolved on the calling thread, as file collections may not be safe to resolve elsewhere
+    final IsolatingClassLoaderCache.Lease lease = this.cache.acquire(loader);
+    final CompletableFuture<Object> result = new CompletableFuture<>();
+    try {
+      this.executor.execute(() -> {
+        try {
+          result.complete(IsolatedExecutor.execute(lease.loader(), taskClassName, serializedParameters, callable));
+        } catch (final Throwable ex) {
+          result.completeExceptionally(ex);
+        } finally {
+          lease.close();
+        }
+      });
+    } catch (final RejectedExecutionException ex) {
+      lease.close();
+      throw new IllegalStateException("This executor has been closed", ex);
+    }
+    return result;
+  }
+
+  private static @Nullable Object execute(final URLClassLoader loader, final String taskClassName, final byte @Nullable[] parameters, final boolean callable) throws Throwable {
+    final @Nullable ClassLoader resultLoader = loader.getParent();
+    final Thread thread = Thread.currentThread();
+    final ClassLoader previous = thread.getContextClassLoader();
+    thread.setContextClassLoader(loader);
+    try {
+      final Class<?> taskClass = Class.forName(taskClassName, true, loader);
+      final Object task = IsolatedExecutor.instantiate(taskClass, parameters == null ? null : IsolatedExecutor.deserialize(parameters, loader));
+      if (callable) {
+        if (!(task instanceof Callable<?>)) {
+          throw new IllegalArgumentException("Task " + taskClassName + " does not implement Callable");
+        }
+        final @Nullable Object result = ((Callable<?>) task).call();
+        return result == null ? null : IsolatedExecutor.deserialize(IsolatedExecutor.serialize(result), resultLoader);
+      } else {
+        if (!(task instanceof Runnable)) {
+          throw new IllegalArgumentException("Task " + taskClassName + " does not implement Runnable");
+        }
+        ((Runnable) task).run();
+        return null;
+      }
+    } catch (final Throwable ex) {
+      throw IsolatedExecutor.transfer(ex, resultLoader);
+    } finally {
+      thread.setContextClassLoader(previous);
+    }
+  }
+
+  private static Object instantiate(final Class<?> taskClass, final @Nullable Object parameters) throws ReflectiveOperationException {
+    for (final Constructor<?> ctor : taskClass.getConstructors()) {
+      final Class<?>[] parameterTypes = ctor.getParameterTypes();
+      final boolean matches = parameters == null
+        ? parameterTypes.length == 0
+        : parameterTypes.length == 1 && parameterTypes[0].isInstance(parameters);
+      if (matches) {
+        try {
+          return parameters == null ? ctor.newInstance() : ctor.newInstance(parameters);
+        } catch (final InvocationTargetException ex) {
+          throw IsolatedExecutor.sneaky(ex.getCause());
+        }
+      }
+    }
+    throw new NoSuchMethodException("Task " + taskClass.getName() + " has no public constructor accepting "
+      + (parameters == null ? "no parameters" : parameters.getClass().getName()));
+  }
+
+  /**
+   * Bring a failure from inside an isolated loader into the result loader, where its type may not be visible.
+   *
+   * @param failure the failure
+   * @param resultLoader the loader results are read by
+   * @return a copy of the failure, or a stand-in carrying its description and stack trace
+   */
+  private static Throwable transfer(final Throwable failure, final @Nullable ClassLoader resultLoader) {
+    if (failure instanceof Error && !(failure instanceof LinkageError)) {
+      return failure; // OutOfMemoryError and friends are already shared, and copying them is unwise
+    }
+    try {
+      return (Throwable) IsolatedExecutor.deserialize(IsolatedExecutor.serialize(failure), resultLoader);
+    } catch (final IOException | ClassNotFoundException ex) {
+      final RuntimeException standIn = new RuntimeException(failure.toString());
+      standIn.setStackTrace(failure.getStackTrace());
+      return standIn;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T extends Throwable> T sneaky(final Throwable ex) throws T {
+    throw (T) ex;
+  }
+
+  private static byte @NotNull[] serialize(final @NotNull Object value) throws IOException {
+    if (!(value instanceof Serializable)) {
+      throw new NotSerializableException(value.getClass().getName());
+    }
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (final ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+      oos.writeObject(value);
+    }
+    return bytes.toByteArray();
+  }
+
+  private static @NotNull Object deserialize(final byte @NotNull[] bytes, final @Nullable ClassLoader loader) throws IOException, ClassNotFoundException {
+    try (final ObjectInputStream ois = new LoaderObjectInputStream(new ByteArrayInputStream(bytes), loader)) {
+      return ois.readObject();
+    }
+  }
+
+  private static ThreadFactory threadFactory() {
+    final int pool = POOL_COUNTER.incrementAndGet();
+    final AtomicInteger threadCounter = new AtomicInteger();
+    return task -> {
+      final Thread thread = new Thread(task, "mammoth-isolated-" + pool + "-" + threadCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * Stop accepting new tasks.
+   *
+   * <p>Tasks that have already been submitted will still run, and release their loaders once complete.</p>
+   *
+   * @since 1.5.0
+   */
+  @Override
+  public void close() {
+    this.executor.shutdown();
+  }
+
+  /**
+   * An object input stream resolving classes against a specific loader.
+   */
+  static final class LoaderObjectInputStream extends ObjectInputStream {
+    private final @Nullable ClassLoader loader;
+
+    LoaderObjectInputStream(final InputStream in, final @Nullable ClassLoader loader) throws IOException {
+      super(in);
+      this.loader = loader;
+    }
+
+    @Override
+    protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+      try {
+        return Class.forName(desc.getName(), false, this.loader);
+      } catch (final ClassNotFoundException ex) {
+        // primitive types are not found by name
+        return super.resolveClass(desc);
+      }
+    }
+  }
+}
@@ -24,28 +24,61 @@
 package net.kyori.mammoth;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.util.Iterator;
-import java.util.Set;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
 import org.gradle.api.file.FileCollection;
+import org.gradle.api.provider.Provider;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import static java.util.Objects.requireNonNull;
+
 /**
  * A factory for classloaders that will load classes from themselves rather than its parent where possible.
  *
- * <p>This can be used to create isolated environments for working with Gradle plugins, or providing an alternative to workers.</p>
+ * <p>This can be used to create isolated environments for working with Gradle plugins, or providing an alternative to workers.
+ * See {@link IsolatedExecutor} for running tasks inside shared isolating loaders.</p>
  *
  * <p>The returned loader from any of these factory methods will be registered as parallel capable.</p>
  *
+ * <p>For more control over how the loader behaves, see {@link #builder()}.</p>
+ *
  * @since 1.4.0
  */
 public final class IsolatingClassLoader {
   private IsolatingClassLoader() {
   }
 
+  /**
+   * Create a new builder for an isolating class loader.
+   *
+   * @return a new builder
+   * @since 1.5.0
+   */
+  public static @NotNull Builder builder() {
+    return new IsolatingClassLoaderBuilderImpl();
+  }
+
+  /**
+   * Create a new builder for a hierarchy of isolating class loaders, where each layer is the parent of the next.
+   *
+   * @return a new layered builder
+   * @since 1.5.0
+   */
+  public static @NotNull LayeredBuilder layered() {
+    return new LayeredIsolatingClassLoaderBuilderImpl();
+  }
+
   /**
    * Create a new loader based on a provided set of URLs.
    *
@@ -67,20 +100,401 @@ public final class IsolatingClassLoader {
    * @since 1.4.0
    */
   public static @NotNull URLClassLoader isolatingClassLoader(final @Nullable ClassLoader parent, final @NotNull FileCollection files) {
-    final Set<File> unwrapped = files.getFiles();
-    final URL[] urls = new URL[unwrapped.size()];
-    final Iterator<File> it = files.iterator();
-    int idx = 0;
-    File file;
-    while (it.hasNext()) {
-      file = it.next();
+    return new IsolatingClassLoaderImpl(IsolatingClassLoader.urls(files), parent);
+  }
+
+  /**
+   * Load and link a list of classes on a bounded pool of background threads.
+   *
+   * <p>This can be used to warm up a loader while the build is still configuring, so a tool is ready by the time
+   * a task runs. Classes are not initialized, and classes that cannot be found or linked are skipped.</p>
+   *
+   * @param loader the loader to load classes through
+   * @param classNames the binary names of classes to load
+   * @param parallelism the maximum number of threads to use
+   * @return a future completing with the number of classes successfully loaded
+   * @since 1.5.0
+   */
+  public static @NotNull CompletableFuture<Integer> preload(final @NotNull ClassLoader loader, final @NotNull Collection<String> classNames, final int parallelism) {
+    return ClassPreloader.preload(requireNonNull(loader, "loader"), new ArrayList<>(requireNonNull(classNames, "classNames")), parallelism);
+  }
+
+  /**
+   * Load and link every class in a class list on a bounded pool of background threads.
+   *
+   * <p>The list contains one binary class name per line, as written by {@link #writeLoadedClasses(URLClassLoader, Path)}.
+   * If the list does not exist yet, such as on the first run, nothing is loaded.</p>
+   *
+   * @param loader the loader to load classes through
+   * @param classList the class list file
+   * @param parallelism the maximum number of threads to use
+   * @return a future completing with the number of classes successfully loaded
+   * @throws IOException if the class list exists but could not be read
+   * @since 1.5.0
+   */
+  public static @NotNull CompletableFuture<Integer> preload(final @NotNull ClassLoader loader, final @NotNull Path classList, final int parallelism) throws IOException {
+    return ClassPreloader.preload(requireNonNull(loader, "loader"), ClassPreloader.readClassList(requireNonNull(classList, "classList")), parallelism);
+  }
+
+  /**
+   * Write the classes that an isolating loader has defined so far to a class list, for use with {@link #preload(ClassLoader, Path, int)}.
+   *
+   * @param loader a loader built with {@link Builder#recordLoadedClasses(boolean)} enabled
+   * @param classList the file to write to
+   * @throws IOException if the class list could not be written
+   * @throws IllegalArgumentException if the loader is not an isolating loader that records loaded classes
+   * @since 1.5.0
+   */
+  public static void writeLoadedClasses(final @NotNull URLClassLoader loader, final @NotNull Path classList) throws IOException {
+    final @Nullable List<String> defined = loader instanceof IsolatingClassLoaderImpl ? ((IsolatingClassLoaderImpl) loader).definedClasses() : null;
+    if (defined == null) {
+      throw new IllegalArgumentException("Loader " + loader + " was not created with recordLoadedClasses(true)");
+    }
+    ClassPreloader.writeClassList(requireNonNull(classList, "classList"), defined);
+  }
+
+  /**
+   * Get the metrics collected by an isolating loader.
+   *
+   * @param loader the loader
+   * @return the metrics, or {@code null} if the loader is not an isolating loader built with {@link Builder#collectMetrics(boolean)} enabled
+   * @since 1.5.0
+   */
+  public static @Nullable ClassLoaderMetrics metrics(final @NotNull ClassLoader loader) {
+    return loader instanceof IsolatingClassLoaderImpl ? ((IsolatingClassLoaderImpl) loader).metrics() : null;
+  }
+
+  /**
+   * Get the number of loaders built with {@link Builder#trackLeaks(boolean)} enabled that have not yet been closed or collected.
+   *
+   * <p>In a long-lived daemon, a count that keeps growing between builds indicates loaders are not being closed.</p>
+   *
+   * @return the number of live tracked loaders
+   * @since 1.5.0
+   */
+  public static int liveTrackedLoaders() {
+    return LoaderTracker.live();
+  }
+
+  /**
+   * Create a new loader based on a provided file collection, deferring resolution of the collection until the loader is first used.
+   *
+   * <p>This allows a loader to be prepared while configuring a build, without resolving any dependencies unless
+   * a task that uses the loader actually runs.</p>
+   *
+   * @param parent the parent loader
+   * @param files a provider for the files, such as a {@code Provider<FileCollection>} or {@code Provider<Set<File>>}
+   * @return a handle to the loader
+   * @since 1.5.0
+   */
+  public static @NotNull Deferred deferredIsolatingClassLoader(final @Nullable ClassLoader parent, final @NotNull Provider<? extends Iterable<File>> files) {
+    return IsolatingClassLoader.builder().parent(parent).classpath(files).buildDeferred();
+  }
+
+  static @NotNull URL @NotNull[] urls(final @NotNull FileCollection files) {
+    return IsolatingClassLoader.urls(files.getFiles()).toArray(new URL[0]);
+  }
+
+  static @NotNull List<URL> urls(final @NotNull Iterable<File> files) {
+    // only iterate once, as iterating a collection backed by a configuration may resolve it again
+    final List<URL> urls = files instanceof Collection<?> ? new ArrayList<>(((Collection<?>) files).size()) : new ArrayList<>();
+    for (final File file : files) {
       try {
-        urls[idx++] = file.toURI().toURL();
+        urls.add(file.toURI().toURL());
       } catch (final MalformedURLException ex) {
         throw new IllegalArgumentException("Unable to include file " + file + " in classpath");
       }
     }
+    return urls;
+  }
 
-    return new IsolatingClassLoaderImpl(urls, parent);
+  /**
+   * A builder for isolating class loaders.
+   *
+   * @since 1.5.0
+   */
+  public interface Builder {
+    /**
+     * Set the parent loader, which classes not present on this loader's classpath are delegated to.
+     *
+     * <p>If not set, the system class loader will be used. A {@code null} parent delegates to the bootstrap loader.</p>
+     *
+     * @param parent the parent loader
+     * @return this builder
+     * @since 1.5.0
+     */
+    @NotNull Builder parent(final @Nullable ClassLoader parent);
+
+    /**
+     * Add entries to the classpath of this loader.
+     *
+     * @param urls the urls to add
+     * @return this builder
+     * @since 1.5.0
+     */
+    @NotNull Builder classpath(final @NotNull URL @NotNull... urls);
+
+    /**
+     * Add entries to the classpath of this loader.
+     *
+     * <p>The collection will be resolved when the loader is built.</p>
+     *
+     * @param files the files to add
+     * @return this builder
+     * @since 1.5.0
+     */
+    @NotNull Builder classpath(final @NotNull FileCollection files);
+
+    /**
+     * Add entries to the classpath of this loader.
+     *
+     * <p>The provider will be queried when the loader is built.</p>
+     *
+     * @param files a provider for the files to add, such as a {@code Provider<FileCollection>} or {@code Provider<Set<File>>}
+     * @return this builder
+     * @since 1.5.0
+     */
+    @NotNull Builder classpath(final @NotNull Provider<? extends Iterable<File>> files);
+
+    /**
+     * Set whether the classpath should be indexed when the loader is built.
+     *
+     * <p>An indexed loader scans every jar's central directory and every directory tree once,
+     * mapping each entry to the classpath element that owns it. Class lookups are then a single map access,
+     * and classes that are known to be absent are delegated to the parent directly.</p>
+     *
+     * <p>Resources are looked up through the same index, so {@link ClassLoader#getResource(String)} and the local part
+     * of {@link ClassLoader#getResources(String)} are also map lookups.</p>
+     *
+     * <p>Indexing requires every classpath element to be a local file. {@code Class-Path} manifest attributes
+     * are not followed, and jar signatures are not verified for classes loaded through the index.</p>
+     *
+     * @param indexed whether to index the classpath
+     * @return this builder
+     * @since 1.5.0
+     */
+    @NotNull Builder indexed(final boolean indexed);
+
+    /**
+     * Set whether jars should be read through memory mappings rather than {@link java.util.jar.JarFile}s.
+     *
+     * <p>Classes in stored (uncompressed) entries are defined directly from the mapping without being copied
+     * onto the heap, and deflated entries are inflated into per-thread buffers that are reused between classes.
+     * This reduces garbage and peak heap use while loading large tool classpaths.</p>
+     *
+     * <p>Memory mapping implies {@link #indexed(boolean) indexed mode}. Jars that cannot be mapped, such as those
+     * over 2 GiB or in the zip64 format, are read normally. Mappings are released once they are garbage collected
+     * rather than when the loader is closed, so on Windows the jars stay locked until then.</p>
+     *
+     * @param memoryMapped whether to memory-map jars
+     * @return this builder
+     * @since 1.5.0
+     */
+    @NotNull Builder memoryMapped(final boolean memoryMapped);
+
+    /**
+     * Delegate every class in packages starting with the provided prefixes straight to the parent loader.
+     *
+     * <p>Classes in these packages will never be loaded from this loader's classpath, even if the parent
+     * does not provide them. For example, {@code parentPackages("org.gradle", "kotlin")} will ensure
+     * that Gradle API and Kotlin standard library classes are shared with the parent.</p>
+     *
+     * @param packagePrefixes package prefixes, such as {@code org.gradle}
+     * @return this builder
+     * @since 1.5.0
+     */
+    @NotNull Builder parentPackages(final @NotNull String @NotNull... packagePrefixes);
+
+    /**
+     * Set a filter to determine which packages may be loaded from this loader's classpath.
+     *
+     * <p>The filter receives a package name (empty for the default package), and returns {@code true}
+     * if classes in that package may be loaded locally, or {@code false} to delegate them straight to the parent.
+     * The result is computed at most once per package for each loader.</p>
+     *
+     * @param filter the filter, or {@code null} to allow every package
+     * @return this builder
+     * @since 1.5.0
+     */
+    @NotNull Builder packageFilter(final @Nullable Predicate<String> filter);
+
+    /**
+     * Set a transformer to be applied to the bytes of every class defined by this loader.
+     *
+     * <p>Transformation requires reading classes through a classpath index, so setting a transformer
+     * implies {@link #indexed(boolean) indexed mode}.</p>
+     *
+     * @param transformer the transformer, or {@code null} to define classes as they are
+     * @return this builder
+     * @since 1.5.0
+     */
+    @NotNull Builder transformer(final @Nullable UnaryOperator<byte[]> transformer);
+
+    /**
+     * Cache the output of the {@link #transformer(UnaryOperator) transformer} on disk.
+     *
+     * <p>Transformed classes are keyed on a hash of their input bytes and the transformer version,
+     * so the version must be changed whenever the transformer's output for a given input could change.</p>
+     *
+     * @param directory the directory to store transformed classes in, or {@code null} to disable caching
+     * @param transformerVersion a string identifying the transformer and its version
+     * @return this builder
+     * @since 1.5.0
+     */
+    @NotNull Builder transformCache(final @Nullable Path directory, final @NotNull String transformerVersion);
+
+    /**
+     * Set whether the loader should record the name of every class it defines.
+     *
+     * <p>The recorded classes can be written out with {@link IsolatingClassLoader#writeLoadedClasses(URLClassLoader, Path)}
+     * and used to warm up a loader on the next run with {@link IsolatingClassLoader#preload(ClassLoader, Path, int)}.</p>
+     *
+     * @param record whether to record loaded classes
+     * @return this builder
+     * @since 1.5.0
+     */
+    @NotNull Builder recordLoadedClasses(final boolean record);
+
+    /**
+     * Set whether the results of {@link ClassLoader#getResources(String)} should be cached for the lifetime of the loader.
+     *
+     * <p>This assumes that the resources visible through the parent loader do not change, which is true of most loaders.
+     * It is most effective for service-loader-heavy tools, which repeatedly look up {@code META-INF/services/} entries.
+     * Results are always deduplicated, whether or not they are cached.</p>
+     *
+     * @param cache whether to cache resource lookups
+     * @return this builder
+     * @since 1.5.0
+     */
+    @NotNull Builder cacheParentResources(final boolean cache);
+
+    /**
+     * Set whether the loader should collect {@link ClassLoaderMetrics}, retrievable with {@link IsolatingClassLoader#metrics(ClassLoader)}.
+     *
+     * <p>Loaders that do not collect metrics pay no cost for the instrumentation beyond a null check.</p>
+     *
+     * @param collect whether to collect metrics
+     * @return this builder
+     * @since 1.5.0
+     */
+    @NotNull Builder collectMetrics(final boolean collect);
+
+    /**
+     * Set whether the loader should be tracked, to find loaders that are never closed.
+     *
+     * <p>A warning including the site the loader was built at is logged if a tracked loader is garbage collected
+     * without being closed, and the number of open tracked loaders is available from {@link IsolatingClassLoader#liveTrackedLoaders()}.</p>
+     *
+     * <p>Closing a tracked loader also deals with state that would keep it reachable after it has been closed: shutdown
+     * hooks registered by classes from the loader are removed, and thread locals holding values from the loader are
+     * reported with a warning. On Java 9 and newer, both require {@code --add-opens=java.base/java.lang=ALL-UNNAMED},
+     * and are skipped otherwise.</p>
+     *
+     * @param track whether to track the loader
+     * @return this builder
+     * @since 1.5.0
+     */
+    @NotNull Builder trackLeaks(final boolean track);
+
+    /**
+     * Create a new class loader from the state of this builder.
+     *
+     * @return the new loader
+     * @throws UncheckedIOException if the classpath could not be indexed
+     * @since 1.5.0
+     */
+    @NotNull URLClassLoader build();
+
+    /**
+     * Create a handle that will build a new class loader from the current state of this builder when it is first used.
+     *
+     * <p>Later changes to this builder do not affect the returned handle.</p>
+     *
+     * @return the deferred loader
+     * @since 1.5.0
+     */
+    @NotNull Deferred buildDeferred();
+  }
+
+  /**
+   * A builder for a hierarchy of isolating class loaders, such as a shared API layer with a per-version implementation layer on top.
+   *
+   * <p>Every layer is acquired from an {@link IsolatingClassLoaderCache}, so a layer is shared between every hierarchy
+   * that has the same layers below it. Layers that are not already cached are indexed in parallel before their loaders
+   * are created.</p>
+   *
+   * @since 1.5.0
+   */
+  public interface LayeredBuilder {
+    /**
+     * Add a layer on top of the layers added so far.
+     *
+     * <p>The builder's parent is only used for the first layer. Every later layer has the loader of the layer
+     * below it as its parent. The builder is copied, so later changes to it do not affect this hierarchy.</p>
+     *
+     * @param layer a builder created by {@link IsolatingClassLoader#builder()} describing the layer
+     * @return this builder
+     * @since 1.5.0
+     */
+    @NotNull LayeredBuilder layer(final @NotNull Builder layer);
+
+    /**
+     * Acquire a lease on the topmost loader of the hierarchy, creating any layers that are not already cached.
+     *
+     * <p>The lease holds every layer of the hierarchy, and releases them all when closed.</p>
+     *
+     * @param cache the cache to share layers through
+     * @return a lease on the topmost loader
+     * @throws IllegalStateException if no layers have been added
+     * @throws UncheckedIOException if any classpath could not be read
+     * @since 1.5.0
+     */
+    IsolatingClassLoaderCache.@NotNull Lease acquire(final @NotNull IsolatingClassLoaderCache cache);
+  }
+
+  /**
+   * A handle to an isolating class loader that will only be created, and have its classpath resolved, when first used.
+   *
+   * @since 1.5.0
+   */
+  public interface Deferred extends AutoCloseable {
+    /**
+     * Get the loader, creating it if necessary.
+     *
+     * @return the loader
+     * @throws IllegalStateException if this handle has been closed
+     * @throws UncheckedIOException if the classpath could not be indexed
+     * @since 1.5.0
+     */
+    @NotNull URLClassLoader loader();
+
+    /**
+     * Load a class through the loader, creating it if necessary.
+     *
+     * @param name the binary name of the class
+     * @return the class
+     * @throws ClassNotFoundException if the class could not be found
+     * @since 1.5.0
+     */
+    default @NotNull Class<?> loadClass(final @NotNull String name) throws ClassNotFoundException {
+      return this.loader().loadClass(name);
+    }
+
+    /**
+     * Get whether the loader has been created yet.
+     *
+     * @return whether the loader has been created
+     * @since 1.5.0
+     */
+    boolean isResolved();
+
+    /**
+     * Close the loader if it has been created, and prevent it from being created later.
+     *
+     * @throws IOException if the loader could not be closed
+     * @since 1.5.0
+     */
+    @Override
+    void close() throws IOException;
   }
 }
@@ -0,0 +1,280 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.provider.Provider;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static java.util.Objects.requireNonNull;
+
+final class IsolatingClassLoaderBuilderImpl implements IsolatingClassLoader.Builder {
+  private @Nullable ClassLoader parent = ClassLoader.getSystemClassLoader();
+  // sources are only resolved when the loader is built, so collections backed by configurations stay lazy
+  private final List<Supplier<? extends Collection<URL>>> classpath = new ArrayList<>();
+  private boolean indexed;
+  private boolean memoryMapped;
+  private final List<String> parentPackages = new ArrayList<>();
+  private @Nullable Predicate<String> packageFilter;
+  private @Nullable UnaryOperator<byte[]> transformer;
+  private @Nullable Path transformCache;
+  private @Nullable String transformCacheVersion;
+  private boolean recordLoadedClasses;
+  private boolean cacheParentResources;
+  private boolean collectMetrics;
+  private boolean trackLeaks;
+
+  @Override
+  public IsolatingClassLoader.@NotNull Builder parent(final @Nullable ClassLoader parent) {
+    this.parent = parent;
+    return this;
+  }
+
+  @Override
+  public IsolatingClassLoader.@NotNull Builder classpath(final @NotNull URL @NotNull... urls) {
+    final List<URL> copy = new ArrayList<>(requireNonNull(urls, "urls").length);
+    for (final URL url : urls) {
+      copy.add(requireNonNull(url, "url"));
+    }
+    this.classpath.add(() -> copy);
+    return this;
+  }
+
+  @Override
+  public IsolatingClassLoader.@NotNull Builder classpath(final @NotNull FileCollection files) {
+    requireNonNull(files, "files");
+    this.classpath.add(() -> IsolatingClassLoader.urls(files.getFiles()));
+    return this;
+  }
+
+  @Override
+  public IsolatingClassLoader.@NotNull Builder classpath(final @NotNull Provider<? extends Iterable<File>> files) {
+    requireNonNull(files, "files");
+    this.classpath.add(() -> IsolatingClassLoader.urls(files.get()));
+    return this;
+  }
+
+  @Override
+  public IsolatingClassLoader.@NotNull Builder indexed(final boolean indexed) {
+    this.indexed = indexed;
+    return this;
+  }
+
+  @Override
+  public IsolatingClassLoader.@NotNull Builder memoryMapped(final boolean memoryMapped) {
+    this.memoryMapped = memoryMapped;
+    return this;
+  }
+
+  @Override
+  public IsolatingClassLoader.@NotNull Builder parentPackages(final @NotNull String @NotNull... packagePrefixes) {
+    for (final String prefix : requireNonNull(packagePrefixes, "packagePrefixes")) {
+      this.parentPackages.add(prefix.endsWith(".") ? prefix : prefix + '.');
+    }
+    return this;
+  }
+
+  @Override
+  public IsolatingClassLoader.@NotNull Builder packageFilter(final @Nullable Predicate<String> filter) {
+    this.packageFilter = filter;
+    return this;
+  }
+
+  @Override
+  public IsolatingClassLoader.@NotNull Builder transformer(final @Nullable UnaryOperator<byte[]> transformer) {
+    this.transformer = transformer;
+    return this;
+  }
+
+  @Override
+  public IsolatingClassLoader.@NotNull Builder transformCache(final @Nullable Path directory, final @NotNull String transformerVersion) {
+    this.transformCache = directory;
+    this.transformCacheVersion = requireNonNull(transformerVersion, "transformerVersion");
+    return this;
+  }
+
+  @Override
+  public IsolatingClassLoader.@NotNull Builder recordLoadedClasses(final boolean record) {
+    this.recordLoadedClasses = record;
+    return this;
+  }
+
+  @Override
+  public IsolatingClassLoader.@NotNull Builder cacheParentResources(final boolean cache) {
+    this.cacheParentResources = cache;
+    return this;
+  }
+
+  @Override
+  public IsolatingClassLoader.@NotNull Builder collectMetrics(final boolean collect) {
+    this.collectMetrics = collect;
+    return this;
+  }
+
+  @Override
+  public IsolatingClassLoader.@NotNull Builder trackLeaks(final boolean track) {
+    this.trackLeaks = track;
+    return this;
+  }
+
+  @Nullable ClassLoader parent() {
+    return this.parent;
+  }
+
+  /**
+   * Resolve the classpath of this builder.
+   *
+   * @return the resolved classpath
+   */
+  @NotNull List<URL> classpath() {
+    final List<URL> result = new ArrayList<>();
+    for (final Supplier<? extends Collection<URL>> source : this.classpath) {
+      result.addAll(source.get());
+    }
+    return result;
+  }
+
+  private boolean effectivelyIndexed() {
+    // transformers need access to class bytes and mappings are read through the index
+    return this.indexed || this.memoryMapped || this.transformer != null;
+  }
+
+  /**
+   * Get every option that affects the behaviour of the built loader, other than its parent and classpath.
+   *
+   * @return the options, comparable by {@link Object#equals(Object)}
+   */
+  @NotNull List<Object> options() {
+    return Arrays.asList(
+      this.effectivelyIndexed(),
+      this.memoryMapped,
+      new ArrayList<>(this.parentPackages),
+      this.packageFilter,
+      this.transformer,
+      this.transformCache,
+      this.transformCacheVersion,
+      this.recordLoadedClasses,
+      this.cacheParentResources,
+      this.collectMetrics,
+      this.trackLeaks
+    );
+  }
+
+  private @Nullable Predicate<String> effectivePackageFilter() {
+    if (this.parentPackages.isEmpty()) {
+      return this.packageFilter;
+    }
+
+    final String[] prefixes = this.parentPackages.toArray(new String[0]);
+    final Predicate<String> notParent = packageName -> {
+      final String qualified = packageName + '.';
+      for (final String prefix : prefixes) {
+        if (qualified.startsWith(prefix)) {
+          return false;
+        }
+      }
+      return true;
+    };
+    return this.packageFilter == null ? notParent : notParent.and(this.packageFilter);
+  }
+
+  @Override
+  public IsolatingClassLoader.@NotNull Deferred buildDeferred() {
+    return new DeferredIsolatingClassLoader(this.copy());
+  }
+
+  @NotNull IsolatingClassLoaderBuilderImpl copy() {
+    final IsolatingClassLoaderBuilderImpl copy = new IsolatingClassLoaderBuilderImpl();
+    copy.parent = this.parent;
+    copy.classpath.addAll(this.classpath);
+    copy.indexed = this.indexed;
+    copy.memoryMapped = this.memoryMapped;
+    copy.parentPackages.addAll(this.parentPackages);
+    copy.packageFilter = this.packageFilter;
+    copy.transformer = this.transformer;
+    copy.transformCache = this.transformCache;
+    copy.transformCacheVersion = this.transformCacheVersion;
+    copy.recordLoadedClasses = this.recordLoadedClasses;
+    copy.cacheParentResources = this.cacheParentResources;
+    copy.collectMetrics = this.collectMetrics;
+    copy.trackLeaks = this.trackLeaks;
+    return copy;
+  }
+
+  @Override
+  public @NotNull URLClassLoader build() {
+    final List<URL> classpath = this.classpath();
+    return this.build(this.parent, classpath, this.index(classpath));
+  }
+
+  /**
+   * Index a resolved classpath, if loaders built by this builder are indexed.
+   *
+   * <p>This does not depend on the parent of the loader, so it can be done ahead of time or on another thread.</p>
+   *
+   * @param classpath the resolved classpath
+   * @return the index, or {@code null} if loaders are not indexed
+   * @throws UncheckedIOException if the classpath could not be read
+   */
+  @Nullable ClassPathIndex index(final @NotNull List<URL> classpath) {
+    if (!this.effectivelyIndexed()) {
+      return null;
+    }
+    try {
+      return ClassPathIndex.index(classpath.toArray(new URL[0]), this.memoryMapped);
+    } catch (final IOException ex) {
+      throw new UncheckedIOException("Failed to index classpath " + classpath, ex);
+    }
+  }
+
+  /**
+   * Build a loader with an already resolved classpath and index.
+   *
+   * @param parent the parent loader, which overrides the parent of this builder
+   * @param classpath the resolved classpath
+   * @param index the index of the classpath, if loaders are indexed
+   * @return the new loader
+   */
+  @NotNull URLClassLoader build(final @Nullable ClassLoader parent, final @NotNull List<URL> classpath, final @Nullable ClassPathIndex index) {
+    final URL[] urls = classpath.toArray(new URL[0]);
+    final @Nullable ClassTransformation transformation = this.transformer == null
+      ? null
+      : new ClassTransformation(this.transformer, this.transformCache, this.transformCacheVersion);
+    return new IsolatingClassLoaderImpl(urls, parent, index, this.effectivePackageFilter(), transformation, this.recordLoadedClasses, this.cacheParentResources, this.collectMetrics, this.trackLeaks);
+  }
+}
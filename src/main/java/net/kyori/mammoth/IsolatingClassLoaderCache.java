@@ -0,0 +1,412 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A cache of isolating class loaders, shared between every consumer that requests the same classpath.
+ *
+ * <p>Loaders are keyed on a hash of the contents of their classpath, their parent loader, and the options they were
+ * built with, where options such as filters and transformers are compared by {@link Object#equals(Object)}. Each {@link #acquire(IsolatingClassLoader.Builder) acquisition} hands out a {@link Lease}, and a loader
+ * is only closed once every lease on it has been released and it is evicted, either because it has been idle for
+ * longer than the idle timeout or because the cache holds more loaders than its maximum size.</p>
+ *
+ * <p>Within a Gradle build, a cache is most easily shared through {@link IsolatingClassLoaderCacheService}.</p>
+ *
+ * @since 1.5.0
+ */
+public final class IsolatingClassLoaderCache implements AutoCloseable {
+  private static final Logger LOGGER = Logging.getLogger(IsolatingClassLoaderCache.class);
+  private static final int MAXIMUM_CLASSPATH_THREADS = 4;
+  private static final long CLASSPATH_THREAD_KEEP_ALIVE_SECONDS = 10;
+  private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+  private final int maximumSize;
+  private final long idleTimeoutNanos;
+  private final ClassPathFingerprinter fingerprinter = new ClassPathFingerprinter();
+  private final ThreadPoolExecutor classpathExecutor;
+  private final Map<Key, Entry> entries = new HashMap<>(); // guarded by this
+  private boolean closed; // guarded by this
+
+  private IsolatingClassLoaderCache(final int maximumSize, final Duration idleTimeout) {
+    this.maximumSize = maximumSize;
+    this.idleTimeoutNanos = idleTimeout.toNanos();
+    final int threads = Math.max(1, Math.min(MAXIMUM_CLASSPATH_THREADS, Runtime.getRuntime().availableProcessors()));
+    this.classpathExecutor = new ThreadPoolExecutor(
+      threads,
+      threads,
+      CLASSPATH_THREAD_KEEP_ALIVE_SECONDS,
+      TimeUnit.SECONDS,
+      new LinkedBlockingQueue<>(),
+      IsolatingClassLoaderCache.threadFactory()
+    );
+    // idle threads exit on their own, so the pool never needs shutting down and stays usable until the cache is dropped
+    this.classpathExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Create a new cache.
+   *
+   * @param maximumSize the maximum number of loaders to retain, beyond which idle loaders will be evicted
+   * @param idleTimeout how long a loader may go without any leases before it is evicted
+   * @return a new cache
+   * @since 1.5.0
+   */
+  public static @NotNull IsolatingClassLoaderCache create(final int maximumSize, final @NotNull Duration idleTimeout) {
+    if (maximumSize < 0) {
+      throw new IllegalArgumentException("maximumSize must be non-negative, but was " + maximumSize);
+    }
+    if (requireNonNull(idleTimeout, "idleTimeout").isNegative()) {
+      throw new IllegalArgumentException("idleTimeout must be non-negative, but was " + idleTimeout);
+    }
+    return new IsolatingClassLoaderCache(maximumSize, idleTimeout);
+  }
+
+  /**
+   * Acquire a lease on a loader matching the provided builder, creating a new loader if no matching one is cached.
+   *
+   * <p>The loader must not be closed directly. Instead, the returned lease should be closed once the caller
+   * no longer needs the loader.</p>
+   *
+   * @param builder a builder created by {@link IsolatingClassLoader#builder()} describing the loader
+   * @return a lease on the loader
+   * @throws UncheckedIOException if the classpath could not be read
+   * @since 1.5.0
+   */
+  public @NotNull Lease acquire(final IsolatingClassLoader.@NotNull Builder builder) {
+    final IsolatingClassLoaderBuilderImpl spec = (IsolatingClassLoaderBuilderImpl) requireNonNull(builder, "builder");
+    final List<URL> classpath = spec.classpath();
+    final Key key = new Key(spec.parent(), spec.options(), this.fingerprint(classpath));
+    return this.acquire(key, () -> spec.build(spec.parent(), classpath, spec.index(classpath)));
+  }
+
+  /**
+   * Acquire a lease on the loader for a key, creating it with the provided factory if it is not cached.
+   *
+   * @param key the key
+   * @param factory a factory for the loader
+   * @return a lease on the loader
+   */
+  @NotNull LeaseImpl acquire(final @NotNull Key key, final @NotNull Supplier<URLClassLoader> factory) {
+    final Entry entry;
+    final List<Entry> evicted;
+    synchronized (this) {
+      if (this.closed) {
+        throw new IllegalStateException("This cache has been closed");
+      }
+      entry = this.entries.computeIfAbsent(key, k -> new Entry());
+      entry.references++;
+      // the new entry is leased, so only other, idle, loaders can make way for it
+      evicted = this.collectEvictions();
+    }
+    IsolatingClassLoaderCache.closeAll(evicted);
+
+    try {
+      return new LeaseImpl(entry, entry.loader(factory));
+    } catch (final RuntimeException ex) {
+      this.release(entry);
+      throw ex;
+    }
+  }
+
+  /**
+   * Get the loader already created for a key, without acquiring a lease on it.
+   *
+   * @param key the key
+   * @return the loader, or {@code null} if no loader has been created for the key
+   */
+  @Nullable URLClassLoader peek(final @NotNull Key key) {
+    final @Nullable Entry entry;
+    synchronized (this) {
+      entry = this.entries.get(key);
+    }
+    return entry == null ? null : entry.peek();
+  }
+
+  /**
+   * Compute the fingerprint of a classpath, as used in cache keys.
+   *
+   * @param classpath the classpath
+   * @return the fingerprint
+   * @throws UncheckedIOException if the classpath could not be read
+   */
+  @NotNull String fingerprint(final @NotNull List<URL> classpath) {
+    try {
+      return this.fingerprinter.fingerprint(classpath);
+    } catch (final IOException ex) {
+      throw new UncheckedIOException("Failed to fingerprint classpath " + classpath, ex);
+    }
+  }
+
+  /**
+   * Get the executor used to fingerprint and index classpaths in the background.
+   *
+   * <p>This is a small pool of daemon threads owned by the cache, so that scanning jars neither competes with
+   * the build for the common pool nor blocks on it.</p>
+   *
+   * @return the classpath executor
+   */
+  @NotNull Executor classpathExecutor() {
+    return this.classpathExecutor;
+  }
+
+  /**
+   * Get the number of loaders currently held by this cache, including those that are idle.
+   *
+   * @return the number of loaders
+   * @since 1.5.0
+   */
+  public synchronized int size() {
+    return this.entries.size();
+  }
+
+  /**
+   * Evict every loader that has been idle for longer than the idle timeout.
+   *
+   * <p>This happens automatically whenever a lease is acquired or released, but may be called to release
+   * resources from a cache that is not in active use.</p>
+   *
+   * @since 1.5.0
+   */
+  public void evictIdle() {
+    final List<Entry> evicted;
+    synchronized (this) {
+      evicted = this.collectEvictions();
+    }
+    IsolatingClassLoaderCache.closeAll(evicted);
+  }
+
+  private void release(final Entry entry) {
+    final List<Entry> evicted;
+    synchronized (this) {
+      if (--entry.references == 0) {
+        entry.idleSince = System.nanoTime();
+      }
+      evicted = this.collectEvictions();
+    }
+    IsolatingClassLoaderCache.closeAll(evicted);
+  }
+
+  private static ThreadFactory threadFactory() {
+    final int pool = POOL_COUNTER.incrementAndGet();
+    final AtomicInteger threadCounter = new AtomicInteger();
+    return task -> {
+      final Thread thread = new Thread(task, "mammoth-classpath-" + pool + "-" + threadCounter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  // must hold lock on this
+  private List<Entry> collectEvictions() {
+    final List<Entry> evicted = new ArrayList<>();
+    final long now = System.nanoTime();
+    for (final Iterator<Entry> it = this.entries.values().iterator(); it.hasNext();) {
+      final Entry entry = it.next();
+      if (entry.references == 0 && now - entry.idleSince >= this.idleTimeoutNanos) {
+        it.remove();
+        evicted.add(entry);
+      }
+    }
+
+    while (this.entries.size() > this.maximumSize) {
+      // evict whichever loader has been idle for longest, if there are any idle loaders at all
+      Map.Entry<Key, Entry> oldest = null;
+      for (final Map.Entry<Key, Entry> candidate : this.entries.entrySet()) {
+        if (candidate.getValue().references == 0 && (oldest == null || candidate.getValue().idleSince - oldest.getValue().idleSince < 0)) {
+          oldest = candidate;
+        }
+      }
+      if (oldest == null) {
+        break;
+      }
+      this.entries.remove(oldest.getKey());
+      evicted.add(oldest.getValue());
+    }
+    return evicted;
+  }
+
+  private static void closeAll(final List<Entry> entries) {
+    for (final Entry entry : entries) {
+      entry.close();
+    }
+  }
+
+  /**
+   * Close every loader held by this cache, whether or not it is still leased.
+   *
+   * @since 1.5.0
+   */
+  @Override
+  public void close() {
+    final List<Entry> evicted;
+    synchronized (this) {
+      this.closed = true;
+      evicted = new ArrayList<>(this.entries.values());
+      this.entries.clear();
+    }
+    IsolatingClassLoaderCache.closeAll(evicted);
+  }
+
+  /**
+   * A lease on a shared loader.
+   *
+   * @since 1.5.0
+   */
+  public interface Lease extends AutoCloseable {
+    /**
+     * Get the leased loader.
+     *
+     * @return the loader
+     * @since 1.5.0
+     */
+    @NotNull URLClassLoader loader();
+
+    /**
+     * Release this lease, allowing the loader to be evicted once it has no other leases.
+     *
+     * <p>Releasing a lease more than once has no effect.</p>
+     *
+     * @since 1.5.0
+     */
+    @Override
+    void close();
+  }
+
+  final class LeaseImpl implements Lease {
+    private final Entry entry;
+    private final URLClassLoader loader;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    LeaseImpl(final Entry entry, final URLClassLoader loader) {
+      this.entry = entry;
+      this.loader = loader;
+    }
+
+    @Override
+    public @NotNull URLClassLoader loader() {
+      if (this.released.get()) {
+        throw new IllegalStateException("This lease has already been released");
+      }
+      return this.loader;
+    }
+
+    @Override
+    public void close() {
+      if (this.released.compareAndSet(false, true)) {
+        IsolatingClassLoaderCache.this.release(this.entry);
+      }
+    }
+  }
+
+  static final class Entry {
+    int references; // guarded by the owning cache
+    long idleSince; // guarded by the owning cache
+    private @Nullable URLClassLoader loader;
+    private boolean closed;
+
+    synchronized URLClassLoader loader(final Supplier<URLClassLoader> factory) {
+      if (this.closed) {
+        throw new IllegalStateException("This loader has been closed");
+      }
+      if (this.loader == null) {
+        this.loader = factory.get();
+      }
+      return this.loader;
+    }
+
+    synchronized @Nullable URLClassLoader peek() {
+      return this.loader;
+    }
+
+    synchronized void close() {
+      this.closed = true;
+      if (this.loader != null) {
+        try {
+          this.loader.close();
+        } catch (final IOException ex) {
+          LOGGER.warn("Failed to close cached isolating class loader", ex);
+        }
+        this.loader = null;
+      }
+    }
+  }
+
+  static final class Key {
+    private final @Nullable ClassLoader parent;
+    private final List<Object> options;
+    private final String fingerprint;
+
+    Key(final @Nullable ClassLoader parent, final List<Object> options, final String fingerprint) {
+      this.parent = parent;
+      this.options = options;
+      this.fingerprint = fingerprint;
+    }
+
+    @Override
+    public boolean equals(final @Nullable Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      final Key that = (Key) other;
+      // loaders are compared by identity
+      return this.parent == that.parent
+        && this.options.equals(that.options)
+        && this.fingerprint.equals(that.fingerprint);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(this.parent), this.options, this.fingerprint);
+    }
+  }
+}
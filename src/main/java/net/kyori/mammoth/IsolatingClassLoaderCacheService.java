@@ -0,0 +1,123 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.time.Duration;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.jetbrains.annotations.NotNull;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A build service holding an {@link IsolatingClassLoaderCache} for the duration of a build.
+ *
+ * <p>Every plugin that uses the service registered by {@link #registerIfAbsent(Gradle)} will share the same loaders,
+ * so a tool classpath applied to every project in a build is only loaded once. All loaders are closed once the build
+ * finishes.</p>
+ *
+ * @since 1.5.0
+ */
+public abstract class IsolatingClassLoaderCacheService implements BuildService<IsolatingClassLoaderCacheService.Parameters>, AutoCloseable {
+  /**
+   * The name the shared service is registered under.
+   *
+   * @since 1.5.0
+   */
+  public static final String NAME = "net.kyori.mammoth.isolatingClassLoaderCache";
+
+  static final int DEFAULT_MAXIMUM_SIZE = 32;
+  static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofMinutes(2);
+
+  private final IsolatingClassLoaderCache cache;
+
+  /**
+   * Create a new service, for use by Gradle.
+   *
+   * @since 1.5.0
+   */
+  public IsolatingClassLoaderCacheService() {
+    this.cache = IsolatingClassLoaderCache.create(
+      this.getParameters().getMaximumSize().getOrElse(DEFAULT_MAXIMUM_SIZE),
+      this.getParameters().getIdleTimeout().getOrElse(DEFAULT_IDLE_TIMEOUT)
+    );
+  }
+
+  /**
+   * Register the shared loader cache service with a build, or get the existing registration.
+   *
+   * <p>Tasks that use loaders from the service should declare it through {@code Task.usesService}.</p>
+   *
+   * @param gradle the build to register with
+   * @return a provider for the service
+   * @since 1.5.0
+   */
+  public static @NotNull Provider<IsolatingClassLoaderCacheService> registerIfAbsent(final @NotNull Gradle gradle) {
+    return requireNonNull(gradle, "gradle").getSharedServices().registerIfAbsent(NAME, IsolatingClassLoaderCacheService.class, spec -> {
+      spec.getParameters().getMaximumSize().convention(DEFAULT_MAXIMUM_SIZE);
+      spec.getParameters().getIdleTimeout().convention(DEFAULT_IDLE_TIMEOUT);
+    });
+  }
+
+  /**
+   * Get the cache held by this service.
+   *
+   * @return the cache
+   * @since 1.5.0
+   */
+  public @NotNull IsolatingClassLoaderCache cache() {
+    return this.cache;
+  }
+
+  @Override
+  public void close() {
+    this.cache.close();
+  }
+
+  /**
+   * Parameters for the loader cache service.
+   *
+   * @since 1.5.0
+   */
+  public interface Parameters extends BuildServiceParameters {
+    /**
+     * The maximum number of loaders to retain, beyond which idle loaders will be evicted.
+     *
+     * @return the maximum size property
+     * @since 1.5.0
+     */
+    @NotNull Property<Integer> getMaximumSize();
+
+    /**
+     * How long a loader may go without any leases before it is evicted.
+     *
+     * @return the idle timeout property
+     * @since 1.5.0
+     */
+    @NotNull Property<Duration> getIdleTimeout();
+  }
+}
@@ -24,10 +24,22 @@
 package net.kyori.mammoth;
 
 import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
-import java.util.NoSuchElementException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Predicate;
+import java.util.jar.Manifest;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -37,28 +49,99 @@ final class IsolatingClassLoaderImpl extends URLClassLoader {
   }
 
   private final ClassLoader parent;
+  private final @Nullable ClassPathIndex index;
+  private final @Nullable Predicate<String> packageFilter;
+  private final @Nullable ClassTransformation transformation;
+  // names known to be absent from our own classpath
+  private final Set<String> absent = ConcurrentHashMap.newKeySet();
+  // memoized results of the package filter
+  private final Map<String, Boolean> localPackages = new ConcurrentHashMap<>();
+  // classes defined by this loader, in definition order, if recording is enabled
+  private final @Nullable Queue<String> defined;
+  // results of getResources, if the parent's resources are assumed not to change
+  private final @Nullable Map<String, List<URL>> resources;
+  private final @Nullable ClassLoaderMetricsImpl metrics;
+  private final LoaderTracker.@Nullable Tracked tracked;
 
-  // todo: maybe add transformer function (UnaryOperator<byte[]>)? just for fun
-  // todo: add a filter
   IsolatingClassLoaderImpl(final URL[] urls, final ClassLoader parent) {
+    this(urls, parent, null, null, null, false, false, false, false);
+  }
+
+  IsolatingClassLoaderImpl(
+    final URL[] urls,
+    final ClassLoader parent,
+    final @Nullable ClassPathIndex index,
+    final @Nullable Predicate<String> packageFilter,
+    final @Nullable ClassTransformation transformation,
+    final boolean recordDefinedClasses,
+    final boolean cacheResources,
+    final boolean collectMetrics,
+    final boolean track
+  ) {
     super(urls, parent);
     this.parent = parent;
+    this.index = index;
+    this.packageFilter = packageFilter;
+    this.transformation = transformation;
+    this.defined = recordDefinedClasses ? new ConcurrentLinkedQueue<>() : null;
+    this.resources = cacheResources ? new ConcurrentHashMap<>() : null;
+    this.metrics = collectMetrics ? new ClassLoaderMetricsImpl(index == null ? 0 : index.versionedEntries()) : null;
+    this.tracked = track ? LoaderTracker.track(this, urls, index) : null;
+  }
+
+  /**
+   * Get the metrics collected by this loader.
+   *
+   * @return the metrics, or {@code null} if this loader does not collect them
+   */
+  @Nullable ClassLoaderMetrics metrics() {
+    return this.metrics;
+  }
+
+  /**
+   * Get the names of every class this loader has defined so far, in the order they were defined.
+   *
+   * @return the defined classes, or {@code null} if this loader does not record them
+   */
+  @Nullable List<String> definedClasses() {
+    return this.defined == null ? null : new ArrayList<>(this.defined);
   }
 
   @Override
   protected @Nullable Class<?> loadClass(final @NotNull String name, final boolean resolve) throws ClassNotFoundException {
+    final @Nullable ClassLoaderMetricsImpl metrics = this.metrics;
+    final long lockStart = metrics == null ? 0L : System.nanoTime();
     synchronized (this.getClassLoadingLock(name)) {
+      if (metrics != null) {
+        metrics.lockAcquired(System.nanoTime() - lockStart);
+      }
+
       Class<?> result = this.findLoadedClass(name);
-      if (result == null) {
-        try {
-          result = this.findClass(name);
-        } catch (final ClassNotFoundException ex) {
-          // ignore, delegate to parent
+      if (result == null && this.isLocalCandidate(name) && !this.absent.contains(name)) {
+        final long findStart = metrics == null ? 0L : System.nanoTime();
+        if (this.index != null) {
+          // names the index does not know about go straight to the parent
+          result = this.findIndexedClass(name);
+        } else {
+          result = this.findLocalClass(name);
+        }
+        if (metrics != null) {
+          metrics.searched(result != null, System.nanoTime() - findStart);
+          if (result != null && this.index == null) {
+            // indexed loaders report their own definitions, with the size of the class file
+            LoaderEvents.classLoaded(this, name, true, 0, 0, findStart);
+          }
+        }
+
+        if (result == null) {
+          this.absent.add(name);
+        } else if (this.defined != null) {
+          this.defined.add(name);
         }
       }
 
       if (result == null) {
-        return super.loadClass(name, resolve);
+        return metrics == null ? super.loadClass(name, resolve) : this.delegateClass(name, resolve, metrics);
       }
 
       if (resolve) {
@@ -68,6 +151,138 @@ final class IsolatingClassLoaderImpl extends URLClassLoader {
     }
   }
 
+  private @NotNull Class<?> delegateClass(final @NotNull String name, final boolean resolve, final @NotNull ClassLoaderMetricsImpl metrics) throws ClassNotFoundException {
+    final long start = System.nanoTime();
+    final Class<?> result;
+    try {
+      result = super.loadClass(name, resolve);
+    } catch (final ClassNotFoundException ex) {
+      metrics.delegated(false);
+      throw ex;
+    }
+    metrics.delegated(true);
+    LoaderEvents.classLoaded(this, name, false, 0, 0, start);
+    return result;
+  }
+
+  @Override
+  protected @NotNull Class<?> findClass(final @NotNull String name) throws ClassNotFoundException {
+    if (!this.isLocalCandidate(name)) {
+      throw new ClassNotFoundException(name);
+    }
+
+    if (this.index == null) {
+      return super.findClass(name);
+    }
+
+    final @Nullable Class<?> result = this.findIndexedClass(name);
+    if (result == null) {
+      throw new ClassNotFoundException(name);
+    }
+    return result;
+  }
+
+  private boolean isLocalCandidate(final @NotNull String className) {
+    if (this.packageFilter == null) {
+      return true;
+    }
+
+    final int lastDot = className.lastIndexOf('.');
+    final String packageName = lastDot == -1 ? "" : className.substring(0, lastDot);
+    return this.localPackages.computeIfAbsent(packageName, this.packageFilter::test);
+  }
+
+  /**
+   * Find a class on this loader's own classpath, returning {@code null} rather than throwing when it is not present.
+   *
+   * <p>Most classes that reach an isolating loader are provided by its parent, so we probe for the class file
+   * first to avoid constructing (and immediately discarding) a {@link ClassNotFoundException} for each of them.</p>
+   *
+   * @param name the binary name of the class
+   * @return the class, or {@code null} if it is not present locally
+   */
+  private @Nullable Class<?> findLocalClass(final @NotNull String name) {
+    if (this.findResource(ClassPathIndex.classEntry(name)) == null) {
+      return null;
+    }
+
+    try {
+      return this.findClass(name);
+    } catch (final ClassNotFoundException ex) {
+      // ignore, delegate to parent
+      return null;
+    }
+  }
+
+  private @Nullable Class<?> findIndexedClass(final @NotNull String name) throws ClassNotFoundException {
+    final String entry = ClassPathIndex.classEntry(name);
+    final ClassPathIndex.@Nullable Root owner = this.index.owner(entry);
+    if (owner == null) {
+      return null;
+    }
+
+    final ByteBuffer bytes;
+    try {
+      // define the package first, as reading the manifest may reuse the buffer holding the class
+      this.definePackageFor(name, owner);
+      bytes = this.transformation == null ? owner.buffer(entry) : ByteBuffer.wrap(this.transformation.apply(owner.read(entry)));
+    } catch (final IOException ex) {
+      throw new ClassNotFoundException(name, ex);
+    }
+    if (this.metrics == null) {
+      return this.defineClass(name, bytes, owner.codeSource());
+    }
+
+    final int size = bytes.remaining();
+    final long start = System.nanoTime();
+    final Class<?> result = this.defineClass(name, bytes, owner.codeSource());
+    this.metrics.defined(size, System.nanoTime() - start);
+    LoaderEvents.classLoaded(this, name, true, size, owner.release(entry), start);
+    return result;
+  }
+
+  @SuppressWarnings("deprecation") // getDefinedPackage is not available on Java 8
+  private void definePackageFor(final @NotNull String className, final ClassPathIndex.@NotNull Root owner) throws IOException {
+    final int lastDot = className.lastIndexOf('.');
+    if (lastDot == -1) {
+      return;
+    }
+
+    final String packageName = className.substring(0, lastDot);
+    if (this.getPackage(packageName) != null) {
+      return;
+    }
+
+    final @Nullable Manifest manifest = owner.manifest();
+    try {
+      if (manifest != null) {
+        this.definePackage(packageName, manifest, owner.url());
+      } else {
+        this.definePackage(packageName, null, null, null, null, null, null, null);
+      }
+    } catch (final IllegalArgumentException ex) {
+      // another thread defined the package first, which is fine
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      super.close();
+    } finally {
+      try {
+        if (this.index != null) {
+          this.index.close();
+        }
+      } finally {
+        if (this.tracked != null) {
+          this.tracked.closed();
+          LoaderTracker.release(this);
+        }
+      }
+    }
+  }
+
   @Override
   public @Nullable URL getResource(final String name) {
     @Nullable URL result = this.findResource(name);
@@ -78,37 +293,67 @@ final class IsolatingClassLoaderImpl extends URLClassLoader {
   }
 
   @Override
-  public @NotNull Enumeration<URL> getResources(final String name) throws IOException {
-    return new Enumeration<URL>() {
-      @Nullable Enumeration<URL> active = IsolatingClassLoaderImpl.this.findResources(name);
-      @Nullable Enumeration<URL> staged = IsolatingClassLoaderImpl.this.parent == null
-        ? ClassLoader.getSystemClassLoader().getResources(name)
-        : IsolatingClassLoaderImpl.this.parent.getResources(name);
-
-      private @Nullable Enumeration<URL> nextComponent() {
-        if (this.active == null) {
-          return null;
-        } else if (!this.active.hasMoreElements()) {
-          this.active = this.staged;
-          this.staged = null;
-        }
-        return this.active;
-      }
+  public @Nullable URL findResource(final @NotNull String name) {
+    if (this.index == null) {
+      return super.findResource(name);
+    }
 
-      @Override
-      public boolean hasMoreElements() {
-        final @Nullable Enumeration<URL> component = this.nextComponent();
-        return component != null && component.hasMoreElements();
-      }
+    final ClassPathIndex.@Nullable Root owner = this.index.owner(name);
+    if (owner == null) {
+      return null;
+    }
+    try {
+      return owner.resource(name);
+    } catch (final MalformedURLException ex) {
+      return null;
+    }
+  }
 
-      @Override
-      public @NotNull URL nextElement() {
-        final @Nullable Enumeration<URL> component = this.nextComponent();
-        if (component == null) {
-          throw new NoSuchElementException();
-        }
-        return component.nextElement();
+  @Override
+  public @NotNull Enumeration<URL> findResources(final @NotNull String name) throws IOException {
+    if (this.index == null) {
+      return super.findResources(name);
+    }
+
+    final List<ClassPathIndex.Root> owners = this.index.owners(name);
+    final List<URL> result = new ArrayList<>(owners.size());
+    for (final ClassPathIndex.Root owner : owners) {
+      result.add(owner.resource(name));
+    }
+    return Collections.enumeration(result);
+  }
+
+  @Override
+  public @NotNull Enumeration<URL> getResources(final @NotNull String name) throws IOException {
+    if (this.resources == null) {
+      return Collections.enumeration(this.collectResources(name));
+    }
+
+    @Nullable List<URL> result = this.resources.get(name);
+    if (result == null) {
+      result = Collections.unmodifiableList(this.collectResources(name));
+      final @Nullable List<URL> existing = this.resources.putIfAbsent(name, result);
+      if (existing != null) {
+        result = existing;
       }
-    };
+    }
+    return Collections.enumeration(result);
+  }
+
+  private @NotNull List<URL> collectResources(final @NotNull String name) throws IOException {
+    // urls are deduplicated by their string form, as URL.equals may perform name resolution
+    final Map<String, URL> result = new LinkedHashMap<>();
+    IsolatingClassLoaderImpl.addAll(result, this.findResources(name));
+    IsolatingClassLoaderImpl.addAll(result, this.parent == null
+      ? ClassLoader.getSystemClassLoader().getResources(name)
+      : this.parent.getResources(name));
+    return new ArrayList<>(result.values());
+  }
+
+  private static void addAll(final Map<String, URL> result, final Enumeration<URL> urls) {
+    while (urls.hasMoreElements()) {
+      final URL url = urls.nextElement();
+      result.putIfAbsent(url.toExternalForm(), url);
+    }
   }
 }
@@ -0,0 +1,44 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+/**
+ * Information about the running Java version.
+ */
+final class JavaVersions {
+  /**
+   * The feature version of the running JVM, such as {@code 8} or {@code 17}.
+   */
+  static final int CURRENT_FEATURE_VERSION = JavaVersions.parseFeatureVersion(System.getProperty("java.specification.version"));
+
+  private JavaVersions() {
+  }
+
+  static int parseFeatureVersion(final String specificationVersion) {
+    // Java 8 and older use the 1.x scheme
+    final String feature = specificationVersion.startsWith("1.") ? specificationVersion.substring(2) : specificationVersion;
+    final int dot = feature.indexOf('.');
+    return Integer.parseInt(dot == -1 ? feature : feature.substring(0, dot));
+  }
+}
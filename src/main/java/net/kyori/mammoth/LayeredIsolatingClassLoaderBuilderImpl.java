@@ -0,0 +1,181 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static java.util.Objects.requireNonNull;
+
+final class LayeredIsolatingClassLoaderBuilderImpl implements IsolatingClassLoader.LayeredBuilder {
+  private final List<IsolatingClassLoaderBuilderImpl> layers = new ArrayList<>();
+
+  @Override
+  public IsolatingClassLoader.@NotNull LayeredBuilder layer(final IsolatingClassLoader.@NotNull Builder layer) {
+    this.layers.add(((IsolatingClassLoaderBuilderImpl) requireNonNull(layer, "layer")).copy());
+    return this;
+  }
+
+  @Override
+  public IsolatingClassLoaderCache.@NotNull Lease acquire(final @NotNull IsolatingClassLoaderCache cache) {
+    requireNonNull(cache, "cache");
+    if (this.layers.isEmpty()) {
+      throw new IllegalStateException("At least one layer must be added before acquiring a loader");
+    }
+
+    final int count = this.layers.size();
+    // classpaths are resolved on the calling thread, as file collections may not be safe to resolve elsewhere
+    final List<List<URL>> classpaths = new ArrayList<>(count);
+    for (final IsolatingClassLoaderBuilderImpl layer : this.layers) {
+      classpaths.add(layer.classpath());
+    }
+    final List<CompletableFuture<String>> fingerprints = new ArrayList<>(count);
+    for (final List<URL> classpath : classpaths) {
+      fingerprints.add(CompletableFuture.supplyAsync(() -> cache.fingerprint(classpath), cache.classpathExecutor()));
+    }
+
+    // walk up the layers the cache already holds, since every layer above a missing one must be created as well
+    @Nullable ClassLoader parent = this.layers.get(0).parent();
+    int firstMissing = 0;
+    while (firstMissing < count) {
+      final @Nullable URLClassLoader existing = cache.peek(this.key(firstMissing, parent, fingerprints));
+      if (existing == null) {
+        break;
+      }
+      parent = existing;
+      firstMissing++;
+    }
+
+    // missing layers do not depend on each other until their loaders are created, so they are indexed in parallel
+    final List<CompletableFuture<ClassPathIndex>> indexes = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      final IsolatingClassLoaderBuilderImpl layer = this.layers.get(i);
+      final List<URL> classpath = classpaths.get(i);
+      indexes.add(i < firstMissing ? null : CompletableFuture.supplyAsync(() -> layer.index(classpath), cache.classpathExecutor()));
+    }
+
+    final List<IsolatingClassLoaderCache.LeaseImpl> leases = new ArrayList<>(count);
+    // whether the layer being acquired handed its index to the loader factory, which then owns it
+    final AtomicBoolean indexUsed = new AtomicBoolean();
+    try {
+      parent = this.layers.get(0).parent();
+      for (int i = 0; i < count; i++) {
+        final IsolatingClassLoaderBuilderImpl layer = this.layers.get(i);
+        final List<URL> classpath = classpaths.get(i);
+        final @Nullable CompletableFuture<ClassPathIndex> index = indexes.get(i);
+        final @Nullable ClassLoader layerParent = parent;
+        indexUsed.set(false);
+        final IsolatingClassLoaderCache.LeaseImpl lease = cache.acquire(this.key(i, layerParent, fingerprints), () -> {
+          indexUsed.set(true);
+          final @Nullable ClassPathIndex built = index == null ? layer.index(classpath) : LayeredIsolatingClassLoaderBuilderImpl.join(index);
+          try {
+            return layer.build(layerParent, classpath, built);
+          } catch (final RuntimeException ex) {
+            LayeredIsolatingClassLoaderBuilderImpl.closeQuietly(built);
+            throw ex;
+          }
+        });
+        if (!indexUsed.get()) {
+          // the layer was already cached, or was created by another consumer while we were indexing it
+          LayeredIsolatingClassLoaderBuilderImpl.closeQuietly(index);
+        }
+        leases.add(lease);
+        parent = lease.loader();
+      }
+    } catch (final RuntimeException ex) {
+      // the layer that failed is at leases.size(), and its index is only ours to close if the factory never took it
+      for (int i = indexUsed.get() ? leases.size() + 1 : leases.size(); i < count; i++) {
+        LayeredIsolatingClassLoaderBuilderImpl.closeQuietly(indexes.get(i));
+      }
+      for (final IsolatingClassLoaderCache.Lease lease : leases) {
+        lease.close();
+      }
+      throw ex;
+    }
+    return new LayeredLease(leases);
+  }
+
+  private IsolatingClassLoaderCache.Key key(final int layer, final @Nullable ClassLoader parent, final List<CompletableFuture<String>> fingerprints) {
+    return new IsolatingClassLoaderCache.Key(parent, this.layers.get(layer).options(), LayeredIsolatingClassLoaderBuilderImpl.join(fingerprints.get(layer)));
+  }
+
+  private static <T> T join(final CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (final CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  private static void closeQuietly(final @Nullable CompletableFuture<ClassPathIndex> index) {
+    if (index != null) {
+      index.whenComplete((result, error) -> LayeredIsolatingClassLoaderBuilderImpl.closeQuietly(result));
+    }
+  }
+
+  private static void closeQuietly(final @Nullable ClassPathIndex index) {
+    if (index != null) {
+      try {
+        index.close();
+      } catch (final IOException ignored) {
+        // nothing was ever read from it
+      }
+    }
+  }
+
+  /**
+   * A lease on every layer of a hierarchy, handing out the topmost loader.
+   */
+  static final class LayeredLease implements IsolatingClassLoaderCache.Lease {
+    private final List<IsolatingClassLoaderCache.LeaseImpl> leases;
+
+    LayeredLease(final List<IsolatingClassLoaderCache.LeaseImpl> leases) {
+      this.leases = leases;
+    }
+
+    @Override
+    public @NotNull URLClassLoader loader() {
+      return this.leases.get(this.leases.size() - 1).loader();
+    }
+
+    @Override
+    public void close() {
+      // release from the top down, so lower layers are never idle while layers above them are still leased
+      for (int i = this.leases.size() - 1; i >= 0; i--) {
+        this.leases.get(i).close();
+      }
+    }
+  }
+}
@@ -0,0 +1,261 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.reflect.Field;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Tracks isolating loaders, warning about loaders that are collected without being closed, and about state that
+ * would otherwise keep closed loaders reachable.
+ *
+ * <p>Shutdown hooks registered by a closed loader are removed. Thread locals holding values from a closed loader are
+ * only reported, as the maps holding them belong to running threads and cannot safely be changed from another thread.
+ * Both rely on reflective access to JDK internals: on Java 9 and newer, this requires {@code java.base/java.lang} to be
+ * opened to the library, and they are skipped otherwise.</p>
+ */
+final class LoaderTracker {
+  private static final Logger LOGGER = Logging.getLogger(LoaderTracker.class);
+  private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<>();
+  // references must stay strongly reachable until they are enqueued
+  private static final Set<Tracked> LIVE = ConcurrentHashMap.newKeySet();
+  private static volatile boolean reaperStarted;
+
+  private LoaderTracker() {
+  }
+
+  /**
+   * Start tracking a loader.
+   *
+   * @param loader the loader
+   * @param urls the classpath of the loader, for diagnostics
+   * @param resources resources to close if the loader is collected without being closed
+   * @return a handle to mark the loader as closed
+   */
+  static @NotNull Tracked track(final @NotNull ClassLoader loader, final @NotNull URL @NotNull[] urls, final @Nullable Closeable resources) {
+    LoaderTracker.startReaper();
+    final Tracked tracked = new Tracked(loader, urls, resources);
+    LIVE.add(tracked);
+    return tracked;
+  }
+
+  /**
+   * Get the number of tracked loaders that have been neither closed nor collected.
+   *
+   * @return the number of live loaders
+   */
+  static int live() {
+    return LIVE.size();
+  }
+
+  private static void startReaper() {
+    if (reaperStarted) {
+      return;
+    }
+    synchronized (LoaderTracker.class) {
+      if (reaperStarted) {
+        return;
+      }
+      final Thread reaper = new Thread(LoaderTracker::reap, "mammoth-loader-reaper");
+      reaper.setDaemon(true);
+      reaper.start();
+      reaperStarted = true;
+    }
+  }
+
+  private static void reap() {
+    while (true) {
+      final Reference<?> ref;
+      try {
+        ref = QUEUE.remove();
+      } catch (final InterruptedException ex) {
+        return;
+      }
+      ((Tracked) ref).collected();
+    }
+  }
+
+  /**
+   * Release, or report, state that loaded classes may hold on behalf of a closed loader.
+   *
+   * @param loader the loader being closed
+   */
+  static void release(final @NotNull ClassLoader loader) {
+    LoaderTracker.removeShutdownHooks(loader);
+    for (final Thread thread : LoaderTracker.allThreads()) {
+      LoaderTracker.reportThreadLocals(thread, "threadLocals", loader);
+      LoaderTracker.reportThreadLocals(thread, "inheritableThreadLocals", loader);
+    }
+  }
+
+  private static void removeShutdownHooks(final ClassLoader loader) {
+    final List<Thread> hooks;
+    try {
+      final Class<?> hooksClass = Class.forName("java.lang.ApplicationShutdownHooks");
+      final Field field = hooksClass.getDeclaredField("hooks");
+      field.setAccessible(true);
+      synchronized (hooksClass) {
+        final @Nullable Map<?, ?> registered = (Map<?, ?>) field.get(null);
+        if (registered == null) {
+          return; // shutdown is already in progress
+        }
+        hooks = new ArrayList<>(registered.size());
+        for (final Object hook : registered.keySet()) {
+          hooks.add((Thread) hook);
+        }
+      }
+    } catch (final ReflectiveOperationException | RuntimeException ex) {
+      LOGGER.debug("Unable to inspect shutdown hooks, they will not be released", ex);
+      return;
+    }
+
+    for (final Thread hook : hooks) {
+      if (hook.getClass().getClassLoader() == loader || hook.getContextClassLoader() == loader) {
+        LOGGER.debug("Removing shutdown hook {} registered by closed loader {}", hook, loader);
+        try {
+          Runtime.getRuntime().removeShutdownHook(hook);
+        } catch (final IllegalStateException ex) {
+          return; // shutdown is already in progress
+        }
+      }
+    }
+  }
+
+  // only reads the map: it belongs to a running thread, and is not safe to change from another
+  private static void reportThreadLocals(final Thread thread, final String mapField, final ClassLoader loader) {
+    try {
+      final Field mapRef = Thread.class.getDeclaredField(mapField);
+      mapRef.setAccessible(true);
+      final @Nullable Object map = mapRef.get(thread);
+      if (map == null) {
+        return;
+      }
+      final Field tableRef = map.getClass().getDeclaredField("table");
+      tableRef.setAccessible(true);
+      final Object @Nullable[] table = (Object[]) tableRef.get(map);
+      if (table == null) {
+        return;
+      }
+
+      @Nullable Field valueRef = null;
+      for (final @Nullable Object entry : table.clone()) {
+        if (entry == null) {
+          continue;
+        }
+        if (valueRef == null) {
+          valueRef = entry.getClass().getDeclaredField("value");
+          valueRef.setAccessible(true);
+        }
+        final @Nullable Object key = ((Reference<?>) entry).get();
+        final @Nullable Object value = valueRef.get(entry);
+        if (LoaderTracker.loadedBy(key, loader) || LoaderTracker.loadedBy(value, loader)) {
+          LOGGER.warn(
+            "Thread {} holds a thread local {} with value {} loaded by closed loader {}, which will keep the loader from being collected until the thread ends. Thread locals should be removed once no longer needed.",
+            thread.getName(),
+            key == null ? "(unknown)" : key.getClass().getName(),
+            value == null ? "(unknown)" : value.getClass().getName(),
+            loader
+          );
+        }
+      }
+    } catch (final ReflectiveOperationException | RuntimeException ex) {
+      LOGGER.debug("Unable to inspect thread locals of {}", thread, ex);
+    }
+  }
+
+  private static boolean loadedBy(final @Nullable Object value, final ClassLoader loader) {
+    if (value == null) {
+      return false;
+    }
+    final Class<?> type = value instanceof Class<?> ? (Class<?>) value : value.getClass();
+    return type.getClassLoader() == loader;
+  }
+
+  private static Thread[] allThreads() {
+    ThreadGroup root = Thread.currentThread().getThreadGroup();
+    while (root.getParent() != null) {
+      root = root.getParent();
+    }
+    Thread[] threads = new Thread[root.activeCount() + 16];
+    int count;
+    while ((count = root.enumerate(threads, true)) == threads.length) {
+      threads = new Thread[threads.length * 2];
+    }
+    return Arrays.copyOf(threads, count);
+  }
+
+  /**
+   * A tracked loader.
+   */
+  static final class Tracked extends PhantomReference<Object> {
+    private final String description;
+    private final Throwable allocationSite;
+    private final @Nullable Closeable resources;
+
+    Tracked(final ClassLoader loader, final URL[] urls, final @Nullable Closeable resources) {
+      super(loader, QUEUE);
+      // neither of these may reference the loader itself, or it would never be collected
+      this.description = "isolating class loader for " + Arrays.toString(urls);
+      this.allocationSite = new Throwable("Loader allocated here");
+      this.resources = resources;
+    }
+
+    /**
+     * Mark the loader as closed, so it is no longer reported as live or leaked.
+     */
+    void closed() {
+      LIVE.remove(this);
+      this.clear();
+    }
+
+    void collected() {
+      if (!LIVE.remove(this)) {
+        return;
+      }
+      LOGGER.warn("An {} was garbage collected without being closed. Loaders should be closed once no longer needed.", this.description, this.allocationSite);
+      if (this.resources != null) {
+        try {
+          this.resources.close();
+        } catch (final IOException ex) {
+          LOGGER.debug("Failed to close resources of leaked {}", this.description, ex);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,325 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A jar that is read through a memory mapping rather than a {@link JarFile}.
+ *
+ * <p>The central directory is parsed directly from the mapping. Stored entries are returned as views of the mapping
+ * without copying, and deflated entries are inflated into buffers that are reused between reads on the same thread.
+ * Those buffers belong to the root rather than being shared between roots, and only entries up to
+ * {@value #MAX_POOLED_SIZE} bytes are inflated into them, so that a root never pins more than a small buffer per
+ * thread.</p>
+ *
+ * <p>Only plain zip files under 2 GiB are supported. Use {@link #open(URL, Path)}, which returns {@code null} for any
+ * file that must instead be read as a {@link JarFile}, such as zip64 or encrypted archives.</p>
+ */
+final class MappedJarRoot extends ClassPathIndex.Root {
+  private static final int END_SIGNATURE = 0x06054b50;
+  private static final int END_SIZE = 22;
+  private static final int CENTRAL_SIGNATURE = 0x02014b50;
+  private static final int CENTRAL_SIZE = 46;
+  private static final int LOCAL_SIGNATURE = 0x04034b50;
+  private static final int LOCAL_SIZE = 30;
+  private static final int MAX_COMMENT_LENGTH = 0xffff;
+  private static final int FLAG_ENCRYPTED = 1;
+  private static final int ZIP64_MARKER = 0xffff;
+
+  static final int MAX_POOLED_SIZE = 64 * 1024;
+
+  private final Path file;
+  private final MappedByteBuffer mapping;
+  private final Map<String, Entry> entries;
+  private final ConcurrentLinkedQueue<Decoder> decoders = new ConcurrentLinkedQueue<>();
+  private final ThreadLocal<byte[]> output = new ThreadLocal<>();
+  private volatile boolean closed;
+
+  private MappedJarRoot(final URL url, final Path file, final MappedByteBuffer mapping, final Map<String, Entry> entries) {
+    super(url);
+    this.file = file;
+    this.mapping = mapping;
+    this.entries = entries;
+  }
+
+  /**
+   * Map a jar file and read its central directory.
+   *
+   * @param url the url of the jar
+   * @param file the jar file
+   * @return the root, or {@code null} if the file uses features that can only be read through a {@link JarFile}
+   * @throws IOException if the file could not be read or is not a zip file
+   */
+  static @Nullable MappedJarRoot open(final URL url, final Path file) throws IOException {
+    final MappedByteBuffer mapping;
+    try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        return null;
+      }
+      mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    mapping.order(ByteOrder.LITTLE_ENDIAN);
+
+    final int end = MappedJarRoot.findEndOfCentralDirectory(mapping);
+    if (end == -1) {
+      throw new IOException("Unable to find end of central directory in " + file);
+    }
+    final int count = MappedJarRoot.u16(mapping, end + 10);
+    final long directorySize = MappedJarRoot.u32(mapping, end + 12);
+    final long directoryOffset = MappedJarRoot.u32(mapping, end + 16);
+    if (count == ZIP64_MARKER || directoryOffset + directorySize > mapping.limit()) {
+      return null;
+    }
+
+    final Map<String, Entry> entries = new HashMap<>(count * 2);
+    int position = (int) directoryOffset;
+    for (int i = 0; i < count; i++) {
+      if (mapping.getInt(position) != CENTRAL_SIGNATURE) {
+        throw new IOException("Corrupt central directory in " + file);
+      }
+      final int flags = MappedJarRoot.u16(mapping, position + 8);
+      final int method = MappedJarRoot.u16(mapping, position + 10);
+      final long compressedSize = MappedJarRoot.u32(mapping, position + 20);
+      final long size = MappedJarRoot.u32(mapping, position + 24);
+      final int nameLength = MappedJarRoot.u16(mapping, position + 28);
+      final int extraLength = MappedJarRoot.u16(mapping, position + 30);
+      final int commentLength = MappedJarRoot.u16(mapping, position + 32);
+      final long localOffset = MappedJarRoot.u32(mapping, position + 42);
+      if ((flags & FLAG_ENCRYPTED) != 0
+        || (method != ZipEntry.STORED && method != ZipEntry.DEFLATED)
+        || compressedSize >= Integer.MAX_VALUE
+        || size >= Integer.MAX_VALUE
+        || localOffset >= mapping.limit()) {
+        return null;
+      }
+
+      final byte[] nameBytes = new byte[nameLength];
+      final ByteBuffer nameView = mapping.duplicate();
+      nameView.position(position + CENTRAL_SIZE);
+      nameView.get(nameBytes);
+      // jar tooling writes utf-8 names whether or not the language encoding flag is set
+      final String name = new String(nameBytes, StandardCharsets.UTF_8);
+      if (!name.endsWith("/")) {
+        entries.putIfAbsent(name, new Entry(method, (int) localOffset, (int) compressedSize, (int) size));
+      }
+      position += CENTRAL_SIZE + nameLength + extraLength + commentLength;
+    }
+
+    return new MappedJarRoot(url, file, mapping, entries);
+  }
+
+  private static int findEndOfCentralDirectory(final ByteBuffer buffer) {
+    final int lowest = Math.max(0, buffer.limit() - END_SIZE - MAX_COMMENT_LENGTH);
+    for (int i = buffer.limit() - END_SIZE; i >= lowest; i--) {
+      if (buffer.getInt(i) == END_SIGNATURE) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int u16(final ByteBuffer buffer, final int index) {
+    return buffer.getShort(index) & 0xffff;
+  }
+
+  private static long u32(final ByteBuffer buffer, final int index) {
+    return buffer.getInt(index) & 0xffffffffL;
+  }
+
+  @Override
+  void index(final @NotNull Consumer<String> names) {
+    this.entries.keySet().forEach(names);
+  }
+
+  @Override
+  @Nullable Manifest manifest() throws IOException {
+    if (!this.entries.containsKey(JarFile.MANIFEST_NAME)) {
+      return null;
+    }
+    return new Manifest(new ByteArrayInputStream(this.readEntry(JarFile.MANIFEST_NAME)));
+  }
+
+  @Override
+  byte @NotNull[] readEntry(final @NotNull String path) throws IOException {
+    final ByteBuffer buffer = this.bufferEntry(path);
+    final byte[] result = new byte[buffer.remaining()];
+    buffer.get(result);
+    return result;
+  }
+
+  /**
+   * Read an entry without allocating a new array.
+   *
+   * <p>The returned buffer is either a view of the mapped file, or a buffer that will be reused by the next read
+   * on the calling thread, so it must be consumed before this root is read from again.</p>
+   *
+   * @param entry the entry to read
+   * @return a buffer holding the entry contents
+   * @throws IOException if the entry could not be read
+   */
+  @Override
+  @NotNull ByteBuffer bufferEntry(final @NotNull String entry) throws IOException {
+    if (this.closed) {
+      throw new IOException("Jar " + this.file + " has been closed");
+    }
+    final Entry info = this.entries.get(entry);
+    if (info == null) {
+      throw new IOException("Entry " + entry + " is not present in " + this.file);
+    }
+
+    final ByteBuffer data = this.mapping.duplicate();
+    if (this.mapping.getInt(info.localOffset) != LOCAL_SIGNATURE) {
+      throw new IOException("Corrupt local header for " + entry + " in " + this.file);
+    }
+    final int dataOffset = info.localOffset + LOCAL_SIZE + MappedJarRoot.u16(this.mapping, info.localOffset + 26) + MappedJarRoot.u16(this.mapping, info.localOffset + 28);
+    data.position(dataOffset);
+    data.limit(dataOffset + info.compressedSize);
+
+    if (info.method == ZipEntry.STORED) {
+      return data.slice();
+    }
+
+    Decoder decoder = this.decoders.poll();
+    if (decoder == null) {
+      decoder = new Decoder();
+    }
+    final Inflater inflater = decoder.inflater;
+    final byte[] output = this.outputBuffer(info.size);
+    try {
+      // Inflater can only read from arrays on Java 8, so the compressed data is copied into a reusable buffer first
+      final byte[] input = decoder.input(info.compressedSize);
+      data.get(input, 0, info.compressedSize);
+      inflater.setInput(input, 0, info.compressedSize);
+      int total = 0;
+      while (total < info.size && !inflater.finished()) {
+        final int read = inflater.inflate(output, total, info.size - total);
+        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        total += read;
+      }
+      if (total != info.size) {
+        throw new IOException("Entry " + entry + " in " + this.file + " inflated to " + total + " bytes, but expected " + info.size);
+      }
+    } catch (final DataFormatException ex) {
+      throw new IOException("Failed to inflate " + entry + " in " + this.file, ex);
+    } finally {
+      this.release(decoder);
+    }
+    return ByteBuffer.wrap(output, 0, info.size);
+  }
+
+  private byte[] outputBuffer(final int size) {
+    if (size > MAX_POOLED_SIZE) {
+      return new byte[size];
+    }
+    byte[] buffer = this.output.get();
+    if (buffer == null || buffer.length < size) {
+      buffer = new byte[Math.max(size, 8192)];
+      this.output.set(buffer);
+    }
+    return buffer;
+  }
+
+  private void release(final Decoder decoder) {
+    if (this.closed) {
+      decoder.inflater.end();
+      return;
+    }
+    decoder.inflater.reset();
+    this.decoders.offer(decoder);
+    // close may have drained the queue between the check above and the offer
+    if (this.closed) {
+      this.endDecoders();
+    }
+  }
+
+  private void endDecoders() {
+    for (Decoder decoder = this.decoders.poll(); decoder != null; decoder = this.decoders.poll()) {
+      decoder.inflater.end();
+    }
+  }
+
+  @Override
+  public void close() {
+    // the mapping itself is released once it is garbage collected, there is no supported way to unmap it eagerly
+    this.closed = true;
+    this.endDecoders();
+    // buffers held by other threads are released along with this root once it is no longer reachable
+    this.output.remove();
+  }
+
+  /**
+   * An inflater, along with a buffer for the compressed data it reads.
+   */
+  static final class Decoder {
+    final Inflater inflater = new Inflater(true);
+    private byte @Nullable[] input;
+
+    byte @NotNull[] input(final int size) {
+      if (size > MAX_POOLED_SIZE) {
+        return new byte[size];
+      }
+      if (this.input == null || this.input.length < size) {
+        this.input = new byte[Math.max(size, 8192)];
+      }
+      return this.input;
+    }
+  }
+
+  static final class Entry {
+    final int method;
+    final int localOffset;
+    final int compressedSize;
+    final int size;
+
+    Entry(final int method, final int localOffset, final int compressedSize, final int size) {
+      this.method = method;
+      this.localOffset = localOffset;
+      this.compressedSize = compressedSize;
+      this.size = size;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.util.function.Consumer;
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+import org.gradle.api.tasks.TaskContainer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Applies mammoth plugins to projects, surrounded by whichever opt-in diagnostics are enabled.
+ */
+final class PluginApplication {
+  private PluginApplication() {
+  }
+
+  /**
+   * Apply a plugin to a project.
+   *
+   * <p>The application is profiled by {@link PluginProfiler}, and the task container handed to the plugin is observed
+   * by {@link EagerTaskDetector} and {@link ConfigurationCacheChecker}, as far as each is enabled. Problems they find
+   * are reported once the plugin has been applied, and the profiler measurement is finished even if applying fails.</p>
+   *
+   * @param plugin the plugin being applied
+   * @param project the project the plugin is applied to
+   * @param apply applies the plugin, given the task container to pass on to it
+   */
+  static void run(final @NotNull Plugin<?> plugin, final @NotNull Project project, final @NotNull Consumer<TaskContainer> apply) {
+    final PluginProfiler.@Nullable Measurement measurement = PluginProfiler.start(plugin, project.getGradle(), project.getProviders(), project.getRootDir(), project.getPath(), project.getTasks(), project.getExtensions());
+    try {
+      final EagerTaskDetector.@Nullable Session eagerTasks = EagerTaskDetector.start(plugin, project);
+      final ConfigurationCacheChecker.@Nullable Session configurationCache = ConfigurationCacheChecker.start(plugin, project);
+      final TaskContainer observedTasks = eagerTasks == null ? project.getTasks() : eagerTasks.tasks();
+      apply.accept(configurationCache == null ? observedTasks : configurationCache.tasks(observedTasks));
+      if (eagerTasks != null) {
+        eagerTasks.finish();
+      }
+      if (configurationCache != null) {
+        configurationCache.finish();
+      }
+    } finally {
+      if (measurement != null) {
+        measurement.finish();
+      }
+    }
+  }
+}
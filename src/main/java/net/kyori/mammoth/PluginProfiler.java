@@ -0,0 +1,177 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import org.gradle.api.Plugin;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.plugins.ExtensionContainer;
+import org.gradle.api.plugins.ExtensionsSchema;
+import org.gradle.api.provider.ProviderFactory;
+import org.gradle.api.tasks.TaskContainer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Measures how long the {@code apply} methods of mammoth plugins take, and what they register.
+ *
+ * <p>Profiling is enabled by setting the {@value #PROPERTY} property to {@code true}, {@code json} or {@code csv}, as
+ * read by {@link DiagnosticProperties}. A report is written to {@code build/reports/mammoth/} under the root project
+ * once the build finishes.</p>
+ */
+final class PluginProfiler {
+  static final String PROPERTY = "net.kyori.mammoth.profilePlugins";
+
+  // measurements in progress on this thread, innermost last, as plugins commonly apply other plugins
+  private static final ThreadLocal<Deque<Measurement>> ACTIVE = ThreadLocal.withInitial(ArrayDeque::new);
+
+  private PluginProfiler() {
+  }
+
+  /**
+   * Start measuring the application of a plugin, if profiling is enabled.
+   *
+   * @param plugin the plugin being applied
+   * @param gradle the build the plugin is applied in
+   * @param providers the provider factory of the plugin target
+   * @param rootDir the root directory of the build
+   * @param target a description of the plugin target, such as a project path
+   * @param tasks the task container of the target, if it has one
+   * @param extensions the extension container of the target
+   * @return the measurement, or {@code null} if profiling is disabled
+   */
+  static @Nullable Measurement start(
+    final @NotNull Plugin<?> plugin,
+    final @NotNull Gradle gradle,
+    final @NotNull ProviderFactory providers,
+    final @NotNull File rootDir,
+    final @NotNull String target,
+    final @Nullable TaskContainer tasks,
+    final @NotNull ExtensionContainer extensions
+  ) {
+    final @Nullable String format = PluginProfiler.format(providers);
+    if (format == null) {
+      return null;
+    }
+
+    final PluginProfilerService service = PluginProfilerService.registerIfAbsent(gradle, rootDir, format).get();
+    if (tasks != null && service.watch(target)) {
+      tasks.configureEach(task -> {
+        final @Nullable Measurement current = ACTIVE.get().peekLast();
+        if (current != null && current.target.equals(target)) {
+          current.realized.add(task.getName());
+        }
+      });
+    }
+
+    final Measurement measurement = new Measurement(service, plugin.getClass().getName(), target, tasks, extensions);
+    ACTIVE.get().addLast(measurement);
+    return measurement;
+  }
+
+  private static @Nullable String format(final ProviderFactory providers) {
+    final @Nullable String value = DiagnosticProperties.read(providers, PROPERTY);
+    if (value == null) {
+      return null;
+    }
+
+    switch (value) {
+      case "true":
+      case "":
+      case "json":
+        return PluginProfilerService.FORMAT_JSON;
+      case "csv":
+        return PluginProfilerService.FORMAT_CSV;
+      default:
+        return null;
+    }
+  }
+
+  private static int count(final @Nullable TaskContainer tasks) {
+    // names include tasks that are registered but not yet realized, without realizing them
+    return tasks == null ? 0 : tasks.getNames().size();
+  }
+
+  private static int count(final ExtensionContainer extensions) {
+    int count = 0;
+    for (final ExtensionsSchema.ExtensionSchema ignored : extensions.getExtensionsSchema()) {
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * A single plugin application being measured.
+   */
+  static final class Measurement {
+    private final PluginProfilerService service;
+    private final String plugin;
+    final String target;
+    private final @Nullable TaskContainer tasks;
+    private final ExtensionContainer extensions;
+    private final int tasksBefore;
+    private final int extensionsBefore;
+    final List<String> realized = new ArrayList<>();
+    private long nestedNanos;
+    private final long start;
+
+    Measurement(final PluginProfilerService service, final String plugin, final String target, final @Nullable TaskContainer tasks, final ExtensionContainer extensions) {
+      this.service = service;
+      this.plugin = plugin;
+      this.target = target;
+      this.tasks = tasks;
+      this.extensions = extensions;
+      this.tasksBefore = PluginProfiler.count(tasks);
+      this.extensionsBefore = PluginProfiler.count(extensions);
+      this.start = System.nanoTime();
+    }
+
+    /**
+     * Finish this measurement and report it.
+     */
+    void finish() {
+      final long duration = System.nanoTime() - this.start;
+      final Deque<Measurement> active = ACTIVE.get();
+      active.removeLastOccurrence(this);
+      final @Nullable Measurement parent = active.peekLast();
+      if (parent != null) {
+        parent.nestedNanos += duration;
+      }
+
+      this.service.record(new PluginProfilerService.Entry(
+        this.plugin,
+        this.target,
+        duration,
+        duration - this.nestedNanos,
+        PluginProfiler.count(this.tasks) - this.tasksBefore,
+        PluginProfiler.count(this.extensions) - this.extensionsBefore,
+        this.realized
+      ));
+    }
+  }
+}
@@ -0,0 +1,237 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A build service collecting the time taken to apply mammoth plugins, and writing a report once the build finishes.
+ *
+ * <p>The service is registered automatically when the {@code net.kyori.mammoth.profilePlugins} Gradle property,
+ * including one set in {@code gradle.properties}, or system property is set to {@code true}, {@code json} or
+ * {@code csv}. Every application of a {@link ProjectPlugin} or {@link ProjectOrSettingsPlugin} is then recorded with
+ * its duration, its duration excluding other mammoth plugins it applied, the number of tasks and extensions it
+ * registered, and the tasks it realized. Entries are sorted from most to least expensive.</p>
+ *
+ * @since 1.5.0
+ */
+public abstract class PluginProfilerService implements BuildService<PluginProfilerService.Parameters>, AutoCloseable {
+  /**
+   * The name the service is registered under.
+   *
+   * @since 1.5.0
+   */
+  public static final String NAME = "net.kyori.mammoth.pluginProfiler";
+
+  static final String FORMAT_JSON = "json";
+  static final String FORMAT_CSV = "csv";
+
+  private static final Logger LOGGER = Logging.getLogger(PluginProfilerService.class);
+
+  private final Queue<Entry> entries = new ConcurrentLinkedQueue<>();
+  private final Set<String> watched = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Create a new service, for use by Gradle.
+   *
+   * @since 1.5.0
+   */
+  public PluginProfilerService() {
+  }
+
+  static @NotNull Provider<PluginProfilerService> registerIfAbsent(final @NotNull Gradle gradle, final @NotNull File rootDir, final @NotNull String format) {
+    return gradle.getSharedServices().registerIfAbsent(NAME, PluginProfilerService.class, spec -> {
+      spec.getParameters().getFormat().set(format);
+      spec.getParameters().getReportFile().set(new File(rootDir, "build/reports/mammoth/plugin-profile." + format));
+    });
+  }
+
+  /**
+   * Mark a target as having its task realizations observed.
+   *
+   * @param target the target
+   * @return {@code true} if the target was not already observed
+   */
+  boolean watch(final @NotNull String target) {
+    return this.watched.add(target);
+  }
+
+  void record(final @NotNull Entry entry) {
+    this.entries.add(entry);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.entries.isEmpty()) {
+      return;
+    }
+
+    final List<Entry> sorted = new ArrayList<>(this.entries);
+    sorted.sort(Comparator.comparingLong((Entry entry) -> entry.durationNanos).reversed());
+    final Path report = this.getParameters().getReportFile().get().getAsFile().toPath();
+    Files.createDirectories(report.toAbsolutePath().getParent());
+    try (final BufferedWriter writer = Files.newBufferedWriter(report, StandardCharsets.UTF_8)) {
+      if (FORMAT_CSV.equals(this.getParameters().getFormat().get())) {
+        PluginProfilerService.writeCsv(writer, sorted);
+      } else {
+        PluginProfilerService.writeJson(writer, sorted);
+      }
+    }
+    LOGGER.lifecycle("Profile of {} plugin applications written to {}", sorted.size(), report);
+  }
+
+  private static void writeJson(final Writer writer, final List<Entry> entries) throws IOException {
+    writer.write("[\n");
+    for (int i = 0; i < entries.size(); i++) {
+      final Entry entry = entries.get(i);
+      writer.write("  {\"plugin\": ");
+      PluginProfilerService.jsonString(writer, entry.plugin);
+      writer.write(", \"target\": ");
+      PluginProfilerService.jsonString(writer, entry.target);
+      writer.write(", \"durationMillis\": " + PluginProfilerService.millis(entry.durationNanos));
+      writer.write(", \"selfMillis\": " + PluginProfilerService.millis(entry.selfNanos));
+      writer.write(", \"tasksRegistered\": " + entry.tasksRegistered);
+      writer.write(", \"extensionsRegistered\": " + entry.extensionsRegistered);
+      writer.write(", \"tasksRealized\": [");
+      for (int j = 0; j < entry.tasksRealized.size(); j++) {
+        if (j > 0) {
+          writer.write(", ");
+        }
+        PluginProfilerService.jsonString(writer, entry.tasksRealized.get(j));
+      }
+      writer.write(i == entries.size() - 1 ? "]}\n" : "]},\n");
+    }
+    writer.write("]\n");
+  }
+
+  private static void jsonString(final Writer writer, final String value) throws IOException {
+    writer.write('"');
+    for (int i = 0; i < value.length(); i++) {
+      final char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        writer.write('\\');
+        writer.write(c);
+      } else if (c < 0x20) {
+        writer.write(String.format(Locale.ROOT, "\\u%04x", (int) c));
+      } else {
+        writer.write(c);
+      }
+    }
+    writer.write('"');
+  }
+
+  private static void writeCsv(final Writer writer, final List<Entry> entries) throws IOException {
+    writer.write("plugin,target,durationMillis,selfMillis,tasksRegistered,extensionsRegistered,tasksRealized\n");
+    for (final Entry entry : entries) {
+      writer.write(PluginProfilerService.csvField(entry.plugin) + ','
+        + PluginProfilerService.csvField(entry.target) + ','
+        + PluginProfilerService.millis(entry.durationNanos) + ','
+        + PluginProfilerService.millis(entry.selfNanos) + ','
+        + entry.tasksRegistered + ','
+        + entry.extensionsRegistered + ','
+        + PluginProfilerService.csvField(String.join(" ", entry.tasksRealized)) + '\n');
+    }
+  }
+
+  private static String csvField(final String value) {
+    if (value.indexOf(',') == -1 && value.indexOf('"') == -1 && value.indexOf('\n') == -1) {
+      return value;
+    }
+    return '"' + value.replace("\"", "\"\"") + '"';
+  }
+
+  private static String millis(final long nanos) {
+    return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+  }
+
+  /**
+   * Parameters for the plugin profiler service.
+   *
+   * @since 1.5.0
+   */
+  public interface Parameters extends BuildServiceParameters {
+    /**
+     * The file to write the report to.
+     *
+     * @return the report file property
+     * @since 1.5.0
+     */
+    @NotNull RegularFileProperty getReportFile();
+
+    /**
+     * The format of the report, either {@code json} or {@code csv}.
+     *
+     * @return the format property
+     * @since 1.5.0
+     */
+    @NotNull Property<String> getFormat();
+  }
+
+  /**
+   * A single recorded plugin application.
+   */
+  static final class Entry {
+    final String plugin;
+    final String target;
+    final long durationNanos;
+    final long selfNanos;
+    final int tasksRegistered;
+    final int extensionsRegistered;
+    final List<String> tasksRealized;
+
+    Entry(final String plugin, final String target, final long durationNanos, final long selfNanos, final int tasksRegistered, final int extensionsRegistered, final List<String> tasksRealized) {
+      this.plugin = plugin;
+      this.target = target;
+      this.durationNanos = durationNanos;
+      this.selfNanos = selfNanos;
+      this.tasksRegistered = tasksRegistered;
+      this.extensionsRegistered = extensionsRegistered;
+      this.tasksRealized = Collections.unmodifiableList(new ArrayList<>(tasksRealized));
+    }
+  }
+}
@@ -38,6 +38,16 @@ import org.jetbrains.annotations.Nullable;
 /**
  * A plugin that can be applied to either a {@link Project} or {@link Settings}.
  *
+ * <p>The time taken to apply plugins can be profiled by setting the {@code net.kyori.mammoth.profilePlugins} property,
+ * see {@link PluginProfilerService}.</p>
+ *
+ * <p>Setting the {@code net.kyori.mammoth.eagerTasks} property to {@code warn} or {@code fail} reports calls through the
+ * provided task container that create or realize tasks eagerly, such as {@code create}, {@code getByName} or {@code all}.</p>
+ *
+ * <p>Setting the {@code net.kyori.mammoth.configurationCacheCheck} property to {@code warn} or {@code fail} reports tasks
+ * registered through the provided task container whose actions or fields capture a {@code Project}, {@code Gradle} or
+ * {@code Settings}, which the configuration cache cannot store.</p>
+ *
  * @since 1.3.0
  */
 public interface ProjectOrSettingsPlugin extends Plugin<Object> {
@@ -45,12 +55,19 @@ public interface ProjectOrSettingsPlugin extends Plugin<Object> {
   default void apply(final @NotNull Object target) {
     if (target instanceof Project) {
       final Project project = (Project) target;
-      GradleCompat.requireMinimumVersion(this.minimumGradleVersion(), this, project.getDisplayName());
-      this.applyToProject(project, project.getPlugins(), project.getExtensions(), project.getTasks());
+      GradleCompat.requireMinimumVersion(this, this::minimumGradleVersion, project.getDisplayName());
+      PluginApplication.run(this, project, tasks -> this.applyToProject(project, project.getPlugins(), project.getExtensions(), tasks));
     } else if (target instanceof Settings) {
       final Settings settings = (Settings) target;
-      GradleCompat.requireMinimumVersion(this.minimumGradleVersion(), this, "settings");
-      this.applyToSettings(settings, settings.getPlugins(), settings.getExtensions());
+      GradleCompat.requireMinimumVersion(this, this::minimumGradleVersion, "settings");
+      final PluginProfiler.@Nullable Measurement measurement = PluginProfiler.start(this, settings.getGradle(), settings.getProviders(), settings.getRootDir(), "settings", null, settings.getExtensions());
+      try {
+        this.applyToSettings(settings, settings.getPlugins(), settings.getExtensions());
+      } finally {
+        if (measurement != null) {
+          measurement.finish();
+        }
+      }
       settings.getGradle().getPlugins().apply(this.getClass());
     } else if (!(target instanceof Gradle)) {
       throw new GradleException(
@@ -94,6 +111,9 @@ public interface ProjectOrSettingsPlugin extends Plugin<Object> {
   /**
    * Return a minimum Gradle version required to use this plugin.
    *
+   * <p>This is checked the first time a plugin class is applied, and assumed to be the same for every instance of
+   * the class, so it is not evaluated again when the plugin is applied to further targets.</p>
+   *
    * @return the minimum required version
    * @since 1.2.0
    */
@@ -39,6 +39,16 @@ import org.jetbrains.annotations.Nullable;
  *
  * <p>Implementations should override the non-deprecated overload of {@code apply}, but until {@code Convention} is removed, either will work.</p>
  *
+ * <p>The time taken to apply plugins can be profiled by setting the {@code net.kyori.mammoth.profilePlugins} property,
+ * see {@link PluginProfilerService}.</p>
+ *
+ * <p>Setting the {@code net.kyori.mammoth.eagerTasks} property to {@code warn} or {@code fail} reports calls through the
+ * provided task container that create or realize tasks eagerly, such as {@code create}, {@code getByName} or {@code all}.</p>
+ *
+ * <p>Setting the {@code net.kyori.mammoth.configurationCacheCheck} property to {@code warn} or {@code fail} reports tasks
+ * registered through the provided task container whose actions or fields capture a {@code Project}, {@code Gradle} or
+ * {@code Settings}, which the configuration cache cannot store.</p>
+ *
  * @since 1.0.0
  */
 public interface ProjectPlugin extends Plugin<Project> {
@@ -46,24 +56,26 @@ public interface ProjectPlugin extends Plugin<Project> {
   @SuppressWarnings("deprecation") // workaround
   default void apply(final @NotNull Project project) {
     // Check version
-    GradleCompat.requireMinimumVersion(this.minimumGradleVersion(), this, project.getDisplayName());
+    GradleCompat.requireMinimumVersion(this, this::minimumGradleVersion, project.getDisplayName());
 
-    if (GradleCompat.SHOULD_USE_CONVENTION) {
-      this.apply(
-        project,
-        project.getPlugins(),
-        project.getExtensions(),
-        project.getConvention(),
-        project.getTasks()
-      );
-    } else {
-      this.apply(
-        project,
-        project.getPlugins(),
-        project.getExtensions(),
-        project.getTasks()
-      );
-    }
+    PluginApplication.run(this, project, tasks -> {
+      if (GradleCompat.SHOULD_USE_CONVENTION.available()) {
+        this.apply(
+          project,
+          project.getPlugins(),
+          project.getExtensions(),
+          project.getConvention(),
+          tasks
+        );
+      } else {
+        this.apply(
+          project,
+          project.getPlugins(),
+          project.getExtensions(),
+          tasks
+        );
+      }
+    });
   }
 
   /**
@@ -110,6 +122,9 @@ public interface ProjectPlugin extends Plugin<Project> {
   /**
    * Return a minimum Gradle version required to use this plugin.
    *
+   * <p>This is checked the first time a plugin class is applied, and assumed to be the same for every instance of
+   * the class, so it is not evaluated again when the plugin is applied to further targets.</p>
+   *
    * @return the minimum required version
    * @since 1.2.0
    */
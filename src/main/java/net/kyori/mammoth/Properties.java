@@ -23,9 +23,20 @@
  */
 package net.kyori.mammoth;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
 import org.gradle.api.provider.HasConfigurableValue;
 import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.ProviderFactory;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import static java.util.Objects.requireNonNull;
 
 /**
  * Helpers for working with properties.
@@ -33,6 +44,28 @@ import org.jetbrains.annotations.NotNull;
  * @since 1.0.0
  */
 public final class Properties {
+  private static final ClassValue<Method[]> CONFIGURABLE_GETTERS = new ClassValue<Method[]>() {
+    @Override
+    protected Method[] computeValue(final Class<?> type) {
+      final List<Method> getters = new ArrayList<>();
+      for (final Method method : type.getMethods()) {
+        if (method.getParameterCount() == 0
+          && !Modifier.isStatic(method.getModifiers())
+          && !method.isBridge()
+          && HasConfigurableValue.class.isAssignableFrom(method.getReturnType())) {
+          try {
+            method.setAccessible(true);
+          } catch (final RuntimeException ex) {
+            // not open to us, so not a managed property we could read anyway
+            continue;
+          }
+          getters.add(method);
+        }
+      }
+      return getters.toArray(new Method[0]);
+    }
+  };
+
   private Properties() {
   }
 
@@ -48,7 +81,7 @@ public final class Properties {
    */
   @SuppressWarnings("deprecation")
   public static <T> @NotNull Provider<T> forUseAtConfigurationTime(final @NotNull Provider<T> provider) {
-    if (GradleCompat.HAS_FOR_USE_AT_CONFIGURATION_TIME) {
+    if (GradleCompat.HAS_FOR_USE_AT_CONFIGURATION_TIME.available()) {
       return provider.forUseAtConfigurationTime();
     } else {
       return provider;
@@ -93,4 +126,129 @@ public final class Properties {
     property.disallowChanges();
     return property;
   }
+
+  /**
+   * Create a provider that computes the value of {@code provider} at most once.
+   *
+   * <p>Every query of a provider recomputes its whole chain of transformations, which adds up when a provider reading
+   * or parsing a file is queried by many tasks or projects. The returned provider remembers the first value (or
+   * absence of a value) it sees, and may be queried concurrently, such as during parallel project configuration.
+   * Like any provider created by {@link ProviderFactory#provider(Callable)}, it is stored in the configuration cache
+   * by its value.</p>
+   *
+   * <p>Only providers whose value will not change should be memoized: task outputs in particular must not be.</p>
+   *
+   * @param <T> the provider value type
+   * @param providers the provider factory
+   * @param provider the provider to memoize
+   * @return a memoizing provider
+   * @since 1.5.0
+   */
+  public static <T> @NotNull Provider<T> memoized(final @NotNull ProviderFactory providers, final @NotNull Provider<T> provider) {
+    requireNonNull(provider, "provider");
+    return Properties.memoized(providers, provider::getOrNull);
+  }
+
+  /**
+   * Create a provider whose value is computed by {@code value} at most once.
+   *
+   * <p>The returned provider has no value if {@code value} returns {@code null}.</p>
+   *
+   * @param <T> the provider value type
+   * @param providers the provider factory
+   * @param value a function computing the value
+   * @return a memoizing provider
+   * @see #memoized(ProviderFactory, Provider)
+   * @since 1.5.0
+   */
+  public static <T> @NotNull Provider<T> memoized(final @NotNull ProviderFactory providers, final @NotNull Callable<? extends T> value) {
+    return requireNonNull(providers, "providers").provider(new Memoized<>(requireNonNull(value, "value")));
+  }
+
+  /**
+   * {@link HasConfigurableValue#finalizeValue() Finalize} every property exposed by {@code object}.
+   *
+   * <p>Properties are found through the public no-argument getters of {@code object} that return a
+   * {@link HasConfigurableValue}, as Gradle generates for managed types. Getters are looked up once per class.</p>
+   *
+   * @param object the object, such as an extension
+   * @param <T> the object type
+   * @return the object
+   * @since 1.5.0
+   */
+  public static <T> @NotNull T finalizedAll(final @NotNull T object) {
+    Properties.forEachConfigurable(object, HasConfigurableValue::finalizeValue);
+    return object;
+  }
+
+  /**
+   * Mark every property exposed by {@code object} as {@link HasConfigurableValue#finalizeValueOnRead() finalized on read}.
+   *
+   * @param object the object, such as an extension
+   * @param <T> the object type
+   * @return the object
+   * @see #finalizedAll(Object)
+   * @since 1.5.0
+   */
+  public static <T> @NotNull T finalizedAllOnRead(final @NotNull T object) {
+    Properties.forEachConfigurable(object, HasConfigurableValue::finalizeValueOnRead);
+    return object;
+  }
+
+  /**
+   * {@link HasConfigurableValue#disallowChanges() Disallow changes} to every property exposed by {@code object}.
+   *
+   * @param object the object, such as an extension
+   * @param <T> the object type
+   * @return the object
+   * @see #finalizedAll(Object)
+   * @since 1.5.0
+   */
+  public static <T> @NotNull T changesDisallowedAll(final @NotNull T object) {
+    Properties.forEachConfigurable(object, HasConfigurableValue::disallowChanges);
+    return object;
+  }
+
+  private static void forEachConfigurable(final Object object, final Consumer<HasConfigurableValue> action) {
+    for (final Method getter : CONFIGURABLE_GETTERS.get(requireNonNull(object, "object").getClass())) {
+      final @Nullable Object value;
+      try {
+        value = getter.invoke(object);
+      } catch (final IllegalAccessException ex) {
+        throw new IllegalStateException("Cannot access property " + getter.getName() + " of " + object, ex);
+      } catch (final InvocationTargetException ex) {
+        throw new IllegalStateException("Failed to get property " + getter.getName() + " of " + object, ex.getCause());
+      }
+      if (value != null) {
+        action.accept((HasConfigurableValue) value);
+      }
+    }
+  }
+
+  private static final class Memoized<T> implements Callable<T> {
+    private static final Object ABSENT = new Object();
+    private final Callable<? extends T> value;
+    private volatile @Nullable Object result;
+
+    Memoized(final Callable<? extends T> value) {
+      this.value = value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public @Nullable T call() throws Exception {
+      @Nullable Object result = this.result;
+      if (result == null) {
+        synchronized (this) {
+          result = this.result;
+          if (result == null) {
+            final @Nullable T computed = this.value.call();
+            result = computed == null ? Memoized.ABSENT : computed;
+            this.result = result;
+          }
+        }
+      }
+      return result == Memoized.ABSENT ? null : (T) result;
+    }
+  }
 }
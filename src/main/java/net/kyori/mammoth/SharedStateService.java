@@ -0,0 +1,90 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A build service holding named {@link BoundedCache caches}, which are cleared once the build finishes.
+ *
+ * <p>Caches are normally obtained through {@link BuildServices#sharedCache(org.gradle.api.invocation.Gradle, String, int)}.</p>
+ *
+ * @since 1.5.0
+ */
+public abstract class SharedStateService implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+  /**
+   * The prefix of the name the shared service is registered under.
+   *
+   * <p>Plugins in one build may each bring their own copy of mammoth, loaded by different class loaders, whose
+   * services cannot be used by each other. The name is qualified with the class loader that defines this class, so
+   * that every copy registers a service of its own.</p>
+   *
+   * @since 1.5.0
+   */
+  public static final String NAME = "net.kyori.mammoth.sharedState";
+
+  private final Map<String, BoundedCache<?, ?>> caches = new ConcurrentHashMap<>();
+
+  /**
+   * Create a new service, for use by Gradle.
+   *
+   * @since 1.5.0
+   */
+  public SharedStateService() {
+  }
+
+  /**
+   * Get or create a named cache.
+   *
+   * <p>The maximum size is only used when the cache is first created. Names are shared between every plugin
+   * in a build, so should be qualified, for example with the plugin's package.</p>
+   *
+   * @param name the cache name
+   * @param maximumSize the maximum number of values to hold
+   * @param <K> the key type
+   * @param <V> the value type
+   * @return the cache
+   * @since 1.5.0
+   */
+  static @NotNull String registrationName() {
+    return NAME + '@' + Integer.toHexString(System.identityHashCode(SharedStateService.class.getClassLoader()));
+  }
+
+  @SuppressWarnings("unchecked")
+  public <K, V> @NotNull BoundedCache<K, V> cache(final @NotNull String name, final int maximumSize) {
+    return (BoundedCache<K, V>) this.caches.computeIfAbsent(name, n -> new BoundedCache<>(maximumSize));
+  }
+
+  @Override
+  public void close() {
+    for (final BoundedCache<?, ?> cache : this.caches.values()) {
+      cache.clear();
+    }
+    this.caches.clear();
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+// CHECKSTYLE:OFF
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+// CHECKSTYLE:ON
+
+@Name("net.kyori.mammoth.IsolatedClassLoad")
+@Label("Isolated Class Load")
+@Category({"Mammoth", "Class Loading"})
+@Description("A class loaded through an isolating class loader that collects metrics")
+@Enabled(false)
+final class IsolatedClassLoadEvent extends Event {
+  @Label("Loader")
+  String loader;
+
+  @Label("Class Name")
+  String className;
+
+  @Label("Defined Locally")
+  @Description("Whether the class was defined from the loader's own classpath, rather than by its parent")
+  boolean local;
+
+  @Label("Class File Size")
+  @DataAmount
+  int bytes;
+
+  @Label("Multi-Release Version")
+  @Description("The META-INF/versions directory the class file was read from, or 0 if it was not versioned")
+  int release;
+
+  @Label("Load Time")
+  @Timespan(Timespan.NANOSECONDS)
+  long loadTime;
+}
@@ -0,0 +1,135 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.gradle.api.Project;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BuildServicesTest {
+  static final class TestResource implements AutoCloseable {
+    volatile boolean closed;
+
+    @Override
+    public void close() {
+      this.closed = true;
+    }
+  }
+
+  @Test
+  void testSharedCacheEvictsLeastRecentlyUsed() {
+    final Project project = ProjectBuilder.builder().build();
+    final BoundedCache<String, AtomicInteger> cache = BuildServices.sharedCache(project.getGradle(), "test", 2);
+    assertSame(cache, BuildServices.sharedCache(project.getGradle(), "test", 2));
+
+    final AtomicInteger loads = new AtomicInteger();
+    final AtomicInteger a = cache.get("a", k -> new AtomicInteger(loads.incrementAndGet()));
+    cache.get("b", k -> new AtomicInteger(loads.incrementAndGet()));
+    assertSame(a, cache.get("a", k -> new AtomicInteger(loads.incrementAndGet())));
+    cache.get("c", k -> new AtomicInteger(loads.incrementAndGet()));
+
+    assertEquals(3, loads.get());
+    assertEquals(2, cache.size());
+    assertSame(a, cache.getIfPresent("a"));
+    assertNull(cache.getIfPresent("b"));
+  }
+
+  @Test
+  void testSharedCacheFromAnotherCopy() throws Exception {
+    final Project project = ProjectBuilder.builder().build();
+    final BoundedCache<String, String> cache = BuildServices.sharedCache(project.getGradle(), "copies", 1);
+
+    // as if another plugin had brought its own copy of mammoth, sharing only the Gradle API
+    final URL mammoth = BuildServices.class.getProtectionDomain().getCodeSource().getLocation();
+    try (final URLClassLoader copy = IsolatingClassLoader.builder().parent(BuildServicesTest.class.getClassLoader()).classpath(mammoth).build()) {
+      final Class<?> copied = copy.loadClass(BuildServices.class.getName());
+      assertNotSame(BuildServices.class, copied);
+      final Object other = copied.getMethod("sharedCache", Gradle.class, String.class, int.class).invoke(null, project.getGradle(), "copies", 1);
+      assertNotSame(BoundedCache.class, other.getClass());
+      assertSame(other, copied.getMethod("sharedCache", Gradle.class, String.class, int.class).invoke(null, project.getGradle(), "copies", 1));
+    }
+    assertSame(cache, BuildServices.sharedCache(project.getGradle(), "copies", 1));
+  }
+
+  @Test
+  void testEvictedValuesNotClosed() throws Exception {
+    final Project project = ProjectBuilder.builder().build();
+    final BoundedCache<String, TestResource> cache = BuildServices.sharedCache(project.getGradle(), "evicting", 1);
+    final CountDownLatch computing = new CountDownLatch(1);
+    final CountDownLatch evicted = new CountDownLatch(1);
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      // "a" is evicted by "b" while its owner is still computing it
+      final Future<TestResource> a = executor.submit(() -> cache.get("a", key -> {
+        computing.countDown();
+        try {
+          evicted.await();
+        } catch (final InterruptedException ex) {
+          throw new IllegalStateException(ex);
+        }
+        return new TestResource();
+      }));
+      computing.await();
+      final TestResource b = cache.get("b", key -> new TestResource());
+      evicted.countDown();
+
+      assertFalse(a.get().closed);
+      assertFalse(b.closed);
+      assertEquals(1, cache.size());
+      assertNull(cache.getIfPresent("a"));
+
+      cache.clear();
+      assertFalse(a.get().closed);
+      assertTrue(b.closed);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void testValuesClosedOnClear() {
+    final Project project = ProjectBuilder.builder().build();
+    final BoundedCache<String, AutoCloseable> cache = BuildServices.sharedCache(project.getGradle(), "closeable", 4);
+    final AtomicInteger closed = new AtomicInteger();
+    cache.get("a", k -> closed::incrementAndGet);
+    cache.clear();
+    assertEquals(1, closed.get());
+    assertEquals(0, cache.size());
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClassDataSharingTest {
+  private static final String RUNTIME = "Vendor 17.0.1+12";
+
+  @Test
+  void testArchiveKeyedOnRuntimeAndClasspath(final @TempDir Path dir) throws IOException {
+    final Path archives = dir.resolve("archives");
+    final File jar = Files.write(dir.resolve("tool.jar"), new byte[] {1}).toFile();
+    final List<File> classpath = Collections.singletonList(jar);
+
+    final Path file = ClassDataSharing.archive(archives, classpath, 17, RUNTIME).file();
+    assertTrue(Files.isDirectory(archives));
+    assertEquals(archives, file.getParent());
+    assertTrue(file.getFileName().toString().endsWith(".jsa"));
+    assertEquals(file, ClassDataSharing.archive(archives, classpath, 17, RUNTIME).file());
+
+    assertNotEquals(file, ClassDataSharing.archive(archives, classpath, 17, "Vendor 17.0.2+8").file());
+    assertNotEquals(file, ClassDataSharing.archive(archives, Arrays.asList(jar, dir.resolve("other.jar").toFile()), 17, RUNTIME).file());
+    Files.write(jar.toPath(), new byte[] {1, 2});
+    assertNotEquals(file, ClassDataSharing.archive(archives, classpath, 17, RUNTIME).file());
+  }
+
+  @Test
+  void testJvmArguments(final @TempDir Path dir) throws IOException {
+    final List<File> classpath = Collections.singletonList(Files.write(dir.resolve("tool.jar"), new byte[] {1}).toFile());
+    assertEquals(Collections.emptyList(), ClassDataSharing.archive(dir, classpath, 11, "Vendor 11.0.2+9").jvmArguments());
+    ClassDataSharingTest.assertDumpedThenShared(dir, classpath, 17);
+    // Java 19 and newer could regenerate archives in place, but must not, as concurrent runs may be reading them
+    ClassDataSharingTest.assertDumpedThenShared(dir, classpath, 21);
+  }
+
+  private static void assertDumpedThenShared(final Path dir, final List<File> classpath, final int version) throws IOException {
+    final String runtime = "Vendor " + version + ".0.1+12";
+    final ClassDataSharing.Archive archive = ClassDataSharing.archive(dir, classpath, version, runtime);
+    final String absolute = archive.file().toAbsolutePath().toString();
+
+    // without an archive, one is dumped next to where it will be published
+    final List<String> dump = archive.jvmArguments();
+    assertEquals(1, dump.size());
+    assertTrue(dump.get(0).startsWith("-XX:ArchiveClassesAtExit="));
+    final Path dumpFile = Paths.get(dump.get(0).substring("-XX:ArchiveClassesAtExit=".length()));
+    assertEquals(archive.file().toAbsolutePath().getParent(), dumpFile.getParent());
+    assertNotEquals(archive.file().toAbsolutePath(), dumpFile);
+    // concurrent runs of the same classpath each dump to their own file
+    assertNotEquals(dump, ClassDataSharing.archive(dir, classpath, version, runtime).jvmArguments());
+
+    archive.commit();
+    assertTrue(Files.notExists(archive.file()));
+
+    Files.write(dumpFile, "archive".getBytes(StandardCharsets.UTF_8));
+    archive.commit();
+    assertTrue(Files.notExists(dumpFile));
+    assertEquals("archive", new String(Files.readAllBytes(archive.file()), StandardCharsets.UTF_8));
+    assertEquals(Collections.singletonList("-XX:SharedArchiveFile=" + absolute), archive.jvmArguments());
+  }
+}
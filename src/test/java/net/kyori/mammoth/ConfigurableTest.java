@@ -0,0 +1,60 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.gradle.api.Action;
+import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.tasks.Copy;
+import org.gradle.api.tasks.Delete;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ConfigurableTest {
+  @Test
+  void testDeferredActionsAppliedOnRealization() {
+    final Project project = ProjectBuilder.builder().build();
+    final List<String> configured = new ArrayList<>();
+    final Action<Task> all = task -> configured.add("all:" + task.getName());
+
+    final DeferredConfiguration<Task> queue = Configurable.deferred(project.getTasks());
+    project.getTasks().register("copy", Copy.class);
+    project.getTasks().register("delete", Delete.class);
+    queue.configure(all)
+      .configure(all)
+      .configure(Copy.class, task -> configured.add("copy:" + task.getName()));
+    assertEquals(Collections.emptyList(), configured);
+
+    project.getTasks().getByName("copy");
+    assertEquals(Arrays.asList("all:copy", "copy:copy"), configured);
+    project.getTasks().getByName("delete");
+    assertEquals(Arrays.asList("all:copy", "copy:copy", "all:delete"), configured);
+  }
+}
@@ -0,0 +1,56 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2023 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.lang.reflect.Field;
+import net.kyori.mammoth.test.TestContext;
+import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConfigurationCacheCheckerTest {
+  @Test
+  void testCapturesFound() {
+    final Project project = ProjectBuilder.builder().build();
+    final String name = project.getName();
+    final Task good = project.getTasks().register("good", task -> task.doLast(t -> t.getLogger().lifecycle(name))).get();
+    final Task bad = project.getTasks().register("bad", task -> task.doLast(t -> t.getLogger().lifecycle(project.getName()))).get();
+
+    assertEquals(0, ConfigurationCacheChecker.captures(good).size());
+    assertEquals(1, ConfigurationCacheChecker.captures(bad).size());
+    assertTrue(ConfigurationCacheChecker.captures(bad).get(0).contains("captures a Project"));
+  }
+
+  @Test
+  void testPropertyMatchesTestContext() throws ReflectiveOperationException {
+    // mammoth-test cannot depend on this module, so it keeps its own copy of the property name
+    final Field property = TestContext.class.getDeclaredField("CONFIGURATION_CACHE_CHECK");
+    property.setAccessible(true);
+    assertEquals(ConfigurationCacheChecker.PROPERTY, property.get(null));
+  }
+}
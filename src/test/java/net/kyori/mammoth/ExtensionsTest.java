@@ -0,0 +1,53 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import org.gradle.api.Project;
+import org.gradle.api.provider.Provider;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ExtensionsTest {
+  public static class TestExtension {
+  }
+
+  @Test
+  void testRegisteredExtensionCreatedOnFirstAccess() {
+    final Project project = ProjectBuilder.builder().build();
+    final Provider<TestExtension> extension = Extensions.findOrRegister(project.getExtensions(), project.getProviders(), "test", TestExtension.class);
+    assertNull(project.getExtensions().findByName("test"));
+    // registrations are kept out of the container, where build scripts could see or replace them
+    assertFalse(project.getExtensions().getExtraProperties().getProperties().keySet().stream().anyMatch(key -> key.startsWith("net.kyori.mammoth")));
+
+    final TestExtension created = extension.get();
+    assertSame(created, project.getExtensions().findByName("test"));
+    assertSame(created, Extensions.find(project.getExtensions(), "test", TestExtension.class));
+    assertSame(created, Extensions.findOrCreate(project.getExtensions(), "test", TestExtension.class));
+    assertNull(Extensions.find(project.getExtensions(), "test", String.class));
+  }
+}
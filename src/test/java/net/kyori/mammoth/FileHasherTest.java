@@ -0,0 +1,111 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import org.gradle.api.Project;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileHasherTest {
+  private static final String HELLO = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+
+  @Test
+  void testHashesRememberedInCacheFile(final @TempDir Path dir) throws IOException {
+    final Project project = ProjectBuilder.builder().build();
+    final Path file = FileHasherTest.write(dir.resolve("a.txt"), "hello", 60_000);
+    final Path cache = dir.resolve("cache.bin");
+
+    final String first;
+    try (final FileHasher hasher = FileHasher.open(cache)) {
+      first = hasher.fingerprint(project.files(file));
+      assertEquals(HELLO, hasher.hash(file));
+    }
+    assertTrue(Files.isRegularFile(cache));
+
+    try (final FileHasher hasher = FileHasher.open(cache)) {
+      assertEquals(first, hasher.fingerprint(project.files(file)));
+      FileHasherTest.write(file, "changed", 30_000);
+      assertNotEquals(first, hasher.fingerprint(project.files(file)));
+    }
+  }
+
+  @Test
+  void testRecentlyModifiedFilesNotRemembered(final @TempDir Path dir) throws IOException {
+    final Path file = FileHasherTest.write(dir.resolve("a.txt"), "hello", 0);
+    final FileTime modified = Files.getLastModifiedTime(file);
+
+    try (final FileHasher hasher = FileHasher.inMemory()) {
+      assertEquals(HELLO, hasher.hash(file));
+      // a second write within the same timestamp tick, which leaves both size and modification time unchanged
+      Files.write(file, "jello".getBytes(StandardCharsets.UTF_8));
+      Files.setLastModifiedTime(file, modified);
+      assertNotEquals(HELLO, hasher.hash(file));
+    }
+  }
+
+  @Test
+  void testConcurrentSavesMerged(final @TempDir Path dir) throws IOException {
+    final Path a = FileHasherTest.write(dir.resolve("a.txt"), "hello", 60_000);
+    final Path b = FileHasherTest.write(dir.resolve("b.txt"), "hello", 60_000);
+    final Path cache = dir.resolve("cache.bin");
+
+    // as if two daemons had each opened the cache before either saved
+    final FileHasher first = FileHasher.open(cache);
+    final FileHasher second = FileHasher.open(cache);
+    first.hash(a);
+    second.hash(b);
+    first.close();
+    second.close();
+
+    // rewriting the files without changing size or timestamps shows which hashes were remembered
+    FileHasherTest.rewrite(a, "jello");
+    FileHasherTest.rewrite(b, "jello");
+    try (final FileHasher hasher = FileHasher.open(cache)) {
+      assertEquals(HELLO, hasher.hash(a));
+      assertEquals(HELLO, hasher.hash(b));
+    }
+  }
+
+  private static Path write(final Path file, final String contents, final long age) throws IOException {
+    Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - age));
+    return file;
+  }
+
+  private static void rewrite(final Path file, final String contents) throws IOException {
+    final FileTime modified = Files.getLastModifiedTime(file);
+    Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    Files.setLastModifiedTime(file, modified);
+  }
+}
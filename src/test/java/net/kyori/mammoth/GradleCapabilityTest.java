@@ -0,0 +1,56 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.gradle.api.Project;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GradleCapabilityTest {
+  @Test
+  void testCapabilitiesEvaluatedOnce() {
+    final AtomicInteger evaluations = new AtomicInteger();
+    final GradleCapability capability = GradleCapability.of("net.kyori.mammoth.test.once", () -> evaluations.incrementAndGet() > 0);
+    // capabilities are not shared by key, so an unrelated probe under the same key keeps its own answer
+    assertFalse(GradleCapability.of("net.kyori.mammoth.test.once", () -> false).available());
+    assertEquals(0, evaluations.get());
+
+    assertTrue(capability.available());
+    assertTrue(capability.available());
+    assertEquals(1, evaluations.get());
+  }
+
+  @Test
+  void testBuiltInProbes() {
+    assertTrue(GradleCapability.method(Project.class, "getName").available());
+    assertFalse(GradleCapability.method(Project.class, "getName", String.class).available());
+    assertTrue(GradleCapability.type(Project.class.getName()).available());
+    assertTrue(GradleCapability.minimumVersion("1.0").available());
+    assertFalse(GradleCapability.minimumVersion("1.0").negate().available());
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import org.gradle.api.Project;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.FileSystemLocation;
+import org.gradle.api.file.FileType;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Provider;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.gradle.work.ChangeType;
+import org.gradle.work.FileChange;
+import org.gradle.work.InputChanges;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IncrementalStateTest {
+  @Test
+  void testDependentsRebuilt(final @TempDir Path dir) throws Exception {
+    final FileCollection inputs = ProjectBuilder.builder().build().files();
+    final File a = dir.resolve("a").toFile();
+    final File b = dir.resolve("b").toFile();
+    final File c = dir.resolve("c").toFile();
+    final File bOut = dir.resolve("b.out").toFile();
+    final Path stateFile = dir.resolve("state.bin");
+
+    final IncrementalState state = IncrementalState.load(stateFile);
+    assertFalse(state.plan(changes(false), inputs).incremental());
+    state.recordOutputs(b, Collections.singleton(bOut));
+    state.recordDependencies(b, Collections.singleton(a));
+    state.recordOutputs(c, Collections.emptyList());
+    state.save();
+
+    final IncrementalState.Plan plan = IncrementalState.load(stateFile).plan(changes(true, a), inputs);
+    assertTrue(plan.incremental());
+    assertEquals(new HashSet<>(Arrays.asList(a, b)), plan.rebuild());
+    assertEquals(Collections.singleton(bOut), plan.staleOutputs());
+  }
+
+  @Test
+  void testFullRebuildAfterOutputsRestored(final @TempDir Path dir) throws Exception {
+    final Project project = ProjectBuilder.builder().withProjectDir(dir.toFile()).build();
+    final File a = Files.write(dir.resolve("a"), "a".getBytes(StandardCharsets.UTF_8)).toFile();
+    final File b = Files.write(dir.resolve("b"), "b".getBytes(StandardCharsets.UTF_8)).toFile();
+    final RegularFileProperty stateFile = project.getObjects().fileProperty().value(project.getLayout().getBuildDirectory().file("state.bin"));
+
+    final IncrementalState state = IncrementalState.load(stateFile);
+    state.recordOutputs(b, Collections.singleton(dir.resolve("b.out").toFile()));
+    state.recordDependencies(b, Collections.singleton(a));
+    state.save();
+
+    // Gradle removes local state when it restores a task's outputs from the build cache
+    Files.delete(stateFile.get().getAsFile().toPath());
+    final IncrementalState.Plan plan = IncrementalState.load(stateFile).plan(changes(true, a), project.files(a, b));
+    assertFalse(plan.incremental());
+    assertEquals(new HashSet<>(Arrays.asList(a, b)), plan.rebuild());
+    assertEquals(Collections.emptySet(), plan.staleOutputs());
+  }
+
+  private static InputChanges changes(final boolean incremental, final File... modified) {
+    return new InputChanges() {
+      @Override
+      public boolean isIncremental() {
+        return incremental;
+      }
+
+      @Override
+      public Iterable<FileChange> getFileChanges(final FileCollection parameter) {
+        final FileChange[] changes = new FileChange[modified.length];
+        for (int i = 0; i < modified.length; i++) {
+          final File file = modified[i];
+          changes[i] = new FileChange() {
+            @Override
+            public File getFile() {
+              return file;
+            }
+
+            @Override
+            public ChangeType getChangeType() {
+              return ChangeType.MODIFIED;
+            }
+
+            @Override
+            public FileType getFileType() {
+              return FileType.FILE;
+            }
+
+            @Override
+            public String getNormalizedPath() {
+              return file.getName();
+            }
+          };
+        }
+        return Arrays.asList(changes);
+      }
+
+      @Override
+      public Iterable<FileChange> getFileChanges(final Provider<? extends FileSystemLocation> parameter) {
+        return Collections.emptyList();
+      }
+    };
+  }
+}
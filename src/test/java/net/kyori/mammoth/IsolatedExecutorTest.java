@@ -0,0 +1,87 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IsolatedExecutorTest {
+  public static final class Describe implements Callable<String> {
+    private final String prefix;
+
+    public Describe(final String prefix) {
+      this.prefix = prefix;
+    }
+
+    @Override
+    public String call() {
+      return this.prefix + Describe.class.getClassLoader().getClass().getName();
+    }
+  }
+
+  public static final class Fail implements Runnable {
+    @Override
+    public void run() {
+      throw new IllegalStateException("expected");
+    }
+  }
+
+  @Test
+  void testCallRunsInIsolatedLoader(final @TempDir Path temp) throws IOException, InterruptedException, ExecutionException {
+    final URL jar = IsolatingClassLoaderTest.jarOf(temp, Describe.class);
+    try (final IsolatingClassLoaderCache cache = IsolatingClassLoaderCache.create(4, Duration.ofMinutes(1));
+         final IsolatedExecutor executor = IsolatedExecutor.create(cache, 2)) {
+      final IsolatingClassLoader.Builder loader = IsolatingClassLoader.builder()
+        .parent(IsolatedExecutorTest.class.getClassLoader())
+        .classpath(jar);
+      final String result = executor.<String>call(loader, Describe.class.getName(), "loaded by ").get();
+      assertEquals("loaded by " + IsolatingClassLoaderImpl.class.getName(), result);
+      assertNotEquals(0, cache.size());
+    }
+  }
+
+  @Test
+  void testFailuresPropagate(final @TempDir Path temp) throws IOException {
+    final URL jar = IsolatingClassLoaderTest.jarOf(temp, Fail.class);
+    try (final IsolatingClassLoaderCache cache = IsolatingClassLoaderCache.create(4, Duration.ofMinutes(1));
+         final IsolatedExecutor executor = IsolatedExecutor.create(cache, 1)) {
+      final IsolatingClassLoader.Builder loader = IsolatingClassLoader.builder()
+        .parent(IsolatedExecutorTest.class.getClassLoader())
+        .classpath(jar);
+      final ExecutionException ex = assertThrows(ExecutionException.class, () -> executor.run(loader, Fail.class.getName(), null).get());
+      assertInstanceOf(IllegalStateException.class, ex.getCause());
+    }
+  }
+}
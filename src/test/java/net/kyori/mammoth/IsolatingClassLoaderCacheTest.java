@@ -0,0 +1,219 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IsolatingClassLoaderCacheTest {
+  @Test
+  void testSameClasspathSharesLoader(final @TempDir Path temp) throws IOException {
+    final URL first = IsolatingClassLoaderTest.jarOf(temp, IsolatingClassLoaderTest.Isolated.class);
+    final URL second = IsolatingClassLoaderTest.jarOf(temp, IsolatingClassLoaderTest.Isolated.class);
+    final ClassLoader parent = IsolatingClassLoaderCacheTest.class.getClassLoader();
+
+    try (final IsolatingClassLoaderCache cache = IsolatingClassLoaderCache.create(4, Duration.ofMinutes(1));
+         final IsolatingClassLoaderCache.Lease a = cache.acquire(IsolatingClassLoader.builder().parent(parent).classpath(first));
+         final IsolatingClassLoaderCache.Lease b = cache.acquire(IsolatingClassLoader.builder().parent(parent).classpath(second));
+         final IsolatingClassLoaderCache.Lease c = cache.acquire(IsolatingClassLoader.builder().parent(null).classpath(first))) {
+      // identical contents at a different path are still the same classpath
+      assertSame(a.loader(), b.loader());
+      assertNotSame(a.loader(), c.loader());
+      assertEquals(2, cache.size());
+    }
+  }
+
+  @Test
+  void testIdleLoadersEvictedBeyondMaximumSize(final @TempDir Path temp) throws IOException {
+    final URL jar = IsolatingClassLoaderTest.jarOf(temp, IsolatingClassLoaderTest.Isolated.class);
+
+    try (final IsolatingClassLoaderCache cache = IsolatingClassLoaderCache.create(0, Duration.ofMinutes(1))) {
+      final IsolatingClassLoaderCache.Lease lease = cache.acquire(IsolatingClassLoader.builder().classpath(jar));
+      final URLClassLoader loader = lease.loader();
+      // leased loaders are never evicted
+      assertEquals(1, cache.size());
+
+      lease.close();
+      assertEquals(0, cache.size());
+      assertThrows(IllegalStateException.class, lease::loader);
+
+      try (final IsolatingClassLoaderCache.Lease next = cache.acquire(IsolatingClassLoader.builder().classpath(jar))) {
+        assertNotSame(loader, next.loader());
+      }
+    }
+  }
+
+  @Test
+  void testAcquireEvictsIdleLoaders(final @TempDir Path temp) throws IOException {
+    final URL jar = IsolatingClassLoaderTest.jarOf(temp, IsolatingClassLoaderTest.Isolated.class);
+
+    try (final IsolatingClassLoaderCache cache = IsolatingClassLoaderCache.create(1, Duration.ofMinutes(1))) {
+      cache.acquire(IsolatingClassLoader.builder().classpath(jar)).close();
+      assertEquals(1, cache.size());
+
+      // nothing is released while these leases are held, so only acquiring can make room
+      try (final IsolatingClassLoaderCache.Lease first = cache.acquire(IsolatingClassLoader.builder().classpath(jar).parentPackages("a."))) {
+        assertEquals(1, cache.size());
+        try (final IsolatingClassLoaderCache.Lease second = cache.acquire(IsolatingClassLoader.builder().classpath(jar).parentPackages("b."))) {
+          // leased loaders are never evicted, even beyond the maximum size
+          assertEquals(2, cache.size());
+          assertNotSame(first.loader(), second.loader());
+        }
+      }
+      assertEquals(1, cache.size());
+    }
+  }
+
+  @Test
+  void testLayersSharedBetweenHierarchies(final @TempDir Path temp) throws IOException {
+    final URL api = IsolatingClassLoaderTest.jarOf(temp, IsolatingClassLoaderTest.Isolated.class);
+    final URL first = IsolatingClassLoaderTest.jarOf(temp, IsolatingClassLoaderCacheTest.class);
+    final URL second = IsolatingClassLoaderTest.jarOf(temp, IsolatingClassLoaderTest.class);
+
+    try (final IsolatingClassLoaderCache cache = IsolatingClassLoaderCache.create(4, Duration.ofMinutes(1));
+         final IsolatingClassLoaderCache.Lease a = IsolatingClassLoader.layered()
+           .layer(IsolatingClassLoader.builder().parent(null).classpath(api))
+           .layer(IsolatingClassLoader.builder().classpath(first).indexed(true))
+           .acquire(cache);
+         final IsolatingClassLoaderCache.Lease b = IsolatingClassLoader.layered()
+           .layer(IsolatingClassLoader.builder().parent(null).classpath(api))
+           .layer(IsolatingClassLoader.builder().classpath(second).indexed(true))
+           .acquire(cache)) {
+      assertNotSame(a.loader(), b.loader());
+      assertSame(a.loader().getParent(), b.loader().getParent());
+      assertEquals(3, cache.size());
+    }
+  }
+
+  @Test
+  void testClasspathsScannedOnOwnDaemonThreads() {
+    try (final IsolatingClassLoaderCache cache = IsolatingClassLoaderCache.create(4, Duration.ofMinutes(1))) {
+      final Thread worker = CompletableFuture.supplyAsync(Thread::currentThread, cache.classpathExecutor()).join();
+      assertTrue(worker.isDaemon(), () -> worker + " is not a daemon thread");
+      assertTrue(worker.getName().startsWith("mammoth-classpath-"), () -> worker + " is not owned by the cache");
+    }
+  }
+
+  @Test
+  void testFailedLayerBuildReleasesOtherLayers(final @TempDir Path temp) throws IOException, InterruptedException {
+    assumeTrue(Files.isDirectory(Paths.get("/proc/self/fd")), "open files can only be listed on Linux");
+    final URL api = IsolatingClassLoaderTest.jarOf(temp, IsolatingClassLoaderTest.Isolated.class);
+    final URL broken = Files.write(temp.resolve("broken.jar"), "not a jar".getBytes(StandardCharsets.UTF_8)).toUri().toURL();
+    final URL top = IsolatingClassLoaderTest.jarOf(temp, IsolatingClassLoaderTest.class);
+
+    // nothing is kept once idle, so every layer that was built is closed again once released
+    try (final IsolatingClassLoaderCache cache = IsolatingClassLoaderCache.create(0, Duration.ZERO)) {
+      assertThrows(UncheckedIOException.class, () -> IsolatingClassLoader.layered()
+        .layer(IsolatingClassLoader.builder().parent(null).classpath(api).indexed(true))
+        .layer(IsolatingClassLoader.builder().classpath(broken).indexed(true))
+        .layer(IsolatingClassLoader.builder().classpath(top).indexed(true))
+        .acquire(cache));
+      assertEquals(0, cache.size());
+      IsolatingClassLoaderCacheTest.assertClosed(api);
+      IsolatingClassLoaderCacheTest.assertClosed(top);
+    }
+  }
+
+  @Test
+  void testFailedLayerAcquireClosesItsIndex(final @TempDir Path temp) throws IOException, InterruptedException {
+    assumeTrue(Files.isDirectory(Paths.get("/proc/self/fd")), "open files can only be listed on Linux");
+    final URL api = IsolatingClassLoaderTest.jarOf(temp, IsolatingClassLoaderTest.Isolated.class);
+    final URL middle = IsolatingClassLoaderTest.jarOf(temp, IsolatingClassLoaderCacheTest.class);
+    final URL top = IsolatingClassLoaderTest.jarOf(temp, IsolatingClassLoaderTest.class);
+    final Predicate<String> unhashable = new Predicate<String>() {
+      @Override
+      public boolean test(final String packageName) {
+        return true;
+      }
+
+      @Override
+      public int hashCode() {
+        throw new IllegalStateException("unhashable");
+      }
+    };
+
+    // the middle layer's key cannot be looked up, after its index has already been built
+    try (final IsolatingClassLoaderCache cache = IsolatingClassLoaderCache.create(0, Duration.ZERO)) {
+      assertThrows(IllegalStateException.class, () -> IsolatingClassLoader.layered()
+        .layer(IsolatingClassLoader.builder().parent(null).classpath(api).indexed(true))
+        .layer(IsolatingClassLoader.builder().classpath(middle).indexed(true).packageFilter(unhashable))
+        .layer(IsolatingClassLoader.builder().classpath(top).indexed(true))
+        .acquire(cache));
+      IsolatingClassLoaderCacheTest.assertClosed(api);
+      IsolatingClassLoaderCacheTest.assertClosed(middle);
+      IsolatingClassLoaderCacheTest.assertClosed(top);
+    }
+  }
+
+  // indexes still being built are closed once they complete, so allow them a moment
+  private static void assertClosed(final URL jar) throws IOException, InterruptedException {
+    final Path path;
+    try {
+      path = Paths.get(jar.toURI()).toRealPath();
+    } catch (final URISyntaxException ex) {
+      throw new IOException(ex);
+    }
+    long open = 0;
+    for (int attempt = 0; attempt < 50; attempt++) {
+      open = IsolatingClassLoaderCacheTest.openHandles(path);
+      if (open == 0) {
+        return;
+      }
+      Thread.sleep(20);
+    }
+    assertEquals(0, open, () -> path + " is still open");
+  }
+
+  private static long openHandles(final Path file) throws IOException {
+    try (final Stream<Path> descriptors = Files.list(Paths.get("/proc/self/fd"))) {
+      return descriptors.filter(descriptor -> {
+        try {
+          return Files.readSymbolicLink(descriptor).equals(file);
+        } catch (final IOException ex) {
+          return false; // closed while we were listing
+        }
+      }).count();
+    }
+  }
+}
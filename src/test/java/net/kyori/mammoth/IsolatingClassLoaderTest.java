@@ -0,0 +1,321 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import org.gradle.api.Project;
+import org.gradle.api.provider.Provider;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IsolatingClassLoaderTest {
+  static final class Isolated {
+  }
+
+  static final class Preloaded {
+  }
+
+  static URL jarOf(final Path directory, final Class<?>... classes) throws IOException {
+    final Path jar = Files.createTempFile(directory, "isolated", ".jar");
+    try (final OutputStream os = Files.newOutputStream(jar); final JarOutputStream jos = new JarOutputStream(os)) {
+      for (final Class<?> clazz : classes) {
+        final String entry = ClassPathIndex.classEntry(clazz.getName());
+        jos.putNextEntry(new JarEntry(entry));
+        try (final InputStream is = IsolatingClassLoaderTest.class.getClassLoader().getResourceAsStream(entry)) {
+          jos.write(ClassPathIndex.readFully(is, -1));
+        }
+        jos.closeEntry();
+      }
+    }
+    return jar.toUri().toURL();
+  }
+
+  @Test
+  void testUnindexedLoadsLocalFirst(final @TempDir Path temp) throws IOException, ClassNotFoundException {
+    final URL jar = IsolatingClassLoaderTest.jarOf(temp, Isolated.class);
+    try (final URLClassLoader loader = IsolatingClassLoader.isolatingClassLoader(IsolatingClassLoaderTest.class.getClassLoader(), jar)) {
+      final Class<?> loaded = loader.loadClass(Isolated.class.getName());
+      assertNotSame(Isolated.class, loaded);
+      assertSame(loader, loaded.getClassLoader());
+      assertSame(String.class, loader.loadClass("java.lang.String"));
+    }
+  }
+
+  @Test
+  void testIndexedLoadsLocalFirst(final @TempDir Path temp) throws IOException, ClassNotFoundException {
+    final URL jar = IsolatingClassLoaderTest.jarOf(temp, Isolated.class);
+    try (final URLClassLoader loader = IsolatingClassLoader.builder()
+      .parent(IsolatingClassLoaderTest.class.getClassLoader())
+      .classpath(jar)
+      .indexed(true)
+      .build()) {
+      final Class<?> loaded = loader.loadClass(Isolated.class.getName());
+      assertNotSame(Isolated.class, loaded);
+      assertSame(loader, loaded.getClassLoader());
+      assertSame(loaded, loader.loadClass(Isolated.class.getName()));
+      assertSame(IsolatingClassLoaderTest.class, loader.loadClass(IsolatingClassLoaderTest.class.getName()));
+      assertSame(String.class, loader.loadClass("java.lang.String"));
+      assertThrows(ClassNotFoundException.class, () -> loader.loadClass("net.kyori.mammoth.DoesNotExist"));
+    }
+  }
+
+  @Test
+  void testMemoryMappedLoadsLocalFirst(final @TempDir Path temp) throws IOException, ClassNotFoundException {
+    final URL jar = IsolatingClassLoaderTest.jarOf(temp, Isolated.class);
+    try (final URLClassLoader loader = IsolatingClassLoader.builder()
+      .parent(IsolatingClassLoaderTest.class.getClassLoader())
+      .classpath(jar)
+      .memoryMapped(true)
+      .build()) {
+      final Class<?> loaded = loader.loadClass(Isolated.class.getName());
+      assertNotSame(Isolated.class, loaded);
+      assertSame(loader, loaded.getClassLoader());
+    }
+  }
+
+  @Test
+  void testResourcesDeduplicated(final @TempDir Path temp) throws IOException {
+    final URL jar = IsolatingClassLoaderTest.jarOf(temp, Isolated.class);
+    final String entry = ClassPathIndex.classEntry(Isolated.class.getName());
+    try (final URLClassLoader parent = new URLClassLoader(new URL[] {jar}, null);
+         final URLClassLoader loader = IsolatingClassLoader.builder()
+           .parent(parent)
+           .classpath(jar)
+           .indexed(true)
+           .cacheParentResources(true)
+           .build()) {
+      final List<URL> resources = Collections.list(loader.getResources(entry));
+      assertEquals(1, resources.size());
+      assertEquals(loader.getResource(entry).toExternalForm(), resources.get(0).toExternalForm());
+    }
+  }
+
+  @Test
+  void testParentPackagesDelegate(final @TempDir Path temp) throws IOException, ClassNotFoundException {
+    final URL jar = IsolatingClassLoaderTest.jarOf(temp, Isolated.class);
+    try (final URLClassLoader loader = IsolatingClassLoader.builder()
+      .parent(IsolatingClassLoaderTest.class.getClassLoader())
+      .classpath(jar)
+      .parentPackages("net.kyori")
+      .build()) {
+      assertSame(Isolated.class, loader.loadClass(Isolated.class.getName()));
+    }
+  }
+
+  @Test
+  void testTransformerOutputCached(final @TempDir Path temp) throws IOException, ClassNotFoundException {
+    final URL jar = IsolatingClassLoaderTest.jarOf(temp, Isolated.class);
+    final Path cache = temp.resolve("transformed");
+    final AtomicInteger transformations = new AtomicInteger();
+    for (int i = 0; i < 2; i++) {
+      try (final URLClassLoader loader = IsolatingClassLoader.builder()
+        .parent(IsolatingClassLoaderTest.class.getClassLoader())
+        .classpath(jar)
+        .transformer(bytes -> {
+          transformations.incrementAndGet();
+          return bytes;
+        })
+        .transformCache(cache, "identity-1")
+        .build()) {
+        assertSame(loader, loader.loadClass(Isolated.class.getName()).getClassLoader());
+      }
+    }
+    assertEquals(1, transformations.get());
+  }
+
+  @Test
+  void testMetricsCollected(final @TempDir Path temp) throws IOException, ClassNotFoundException {
+    final URL jar = IsolatingClassLoaderTest.jarOf(temp, Isolated.class);
+    try (final URLClassLoader loader = IsolatingClassLoader.builder()
+      .parent(IsolatingClassLoaderTest.class.getClassLoader())
+      .classpath(jar)
+      .indexed(true)
+      .collectMetrics(true)
+      .build()) {
+      final ClassLoaderMetrics metrics = IsolatingClassLoader.metrics(loader);
+      assertNotNull(metrics);
+      loader.loadClass(Isolated.class.getName());
+      // defining a class delegates the lookups of its own supertypes, so only count the one we make here
+      final long delegated = metrics.classesDelegated();
+      loader.loadClass("java.lang.String");
+      assertThrows(ClassNotFoundException.class, () -> loader.loadClass("net.kyori.mammoth.DoesNotExist"));
+
+      assertEquals(1, metrics.classesDefined());
+      assertEquals(delegated + 1, metrics.classesDelegated());
+      assertEquals(1, metrics.classesNotFound());
+      assertTrue(metrics.bytesRead() > 0);
+    }
+    assertNull(IsolatingClassLoader.metrics(IsolatingClassLoader.builder().build()));
+  }
+
+  @Test
+  void testRecordedClassesPreloaded(final @TempDir Path temp) throws IOException, ClassNotFoundException, InterruptedException, ExecutionException {
+    final URL jar = IsolatingClassLoaderTest.jarOf(temp, Isolated.class, Preloaded.class);
+    final Path classList = temp.resolve("classes.txt");
+    try (final URLClassLoader recording = IsolatingClassLoader.builder().classpath(jar).indexed(true).recordLoadedClasses(true).build()) {
+      recording.loadClass(Isolated.class.getName());
+      recording.loadClass(Preloaded.class.getName());
+      IsolatingClassLoader.writeLoadedClasses(recording, classList);
+    }
+    assertEquals(Arrays.asList(Isolated.class.getName(), Preloaded.class.getName()), ClassPreloader.readClassList(classList));
+    // classes that have since gone away are skipped
+    Files.write(classList, Arrays.asList("# recorded earlier", "net.kyori.mammoth.DoesNotExist"), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+    try (final URLClassLoader loader = IsolatingClassLoader.builder().classpath(jar).indexed(true).collectMetrics(true).build()) {
+      final int preloaded = IsolatingClassLoader.preload(loader, classList, 2).get();
+      assertEquals(2, preloaded);
+      final ClassLoaderMetrics metrics = IsolatingClassLoader.metrics(loader);
+      assertNotNull(metrics);
+      assertEquals(2, metrics.classesDefined());
+      // already defined, so loading again defines nothing new
+      assertSame(loader, loader.loadClass(Preloaded.class.getName()).getClassLoader());
+      assertEquals(2, metrics.classesDefined());
+    }
+  }
+
+  @Test
+  void testDeferredClasspathResolvedOnFirstLoad(final @TempDir Path temp) throws IOException, ClassNotFoundException {
+    final URL jar = IsolatingClassLoaderTest.jarOf(temp, Isolated.class);
+    final Project project = ProjectBuilder.builder().build();
+    final AtomicInteger resolutions = new AtomicInteger();
+    final Provider<List<File>> classpath = project.provider(() -> {
+      resolutions.incrementAndGet();
+      return Collections.singletonList(new File(jar.toURI()));
+    });
+
+    final IsolatingClassLoader.Deferred deferred = IsolatingClassLoader.deferredIsolatingClassLoader(IsolatingClassLoaderTest.class.getClassLoader(), classpath);
+    assertFalse(deferred.isResolved());
+    assertEquals(0, resolutions.get());
+
+    final Class<?> loaded = deferred.loadClass(Isolated.class.getName());
+    assertNotSame(Isolated.class, loaded);
+    assertTrue(deferred.isResolved());
+    assertSame(deferred.loader(), loaded.getClassLoader());
+    assertEquals(1, resolutions.get());
+
+    deferred.close();
+    assertThrows(IllegalStateException.class, deferred::loader);
+    assertEquals(1, resolutions.get());
+  }
+
+  @Test
+  void testDeferredFailuresPropagated(final @TempDir Path temp) throws IOException {
+    final Project project = ProjectBuilder.builder().build();
+    final AtomicInteger resolutions = new AtomicInteger();
+    final IsolatingClassLoader.Deferred unresolvable = IsolatingClassLoader.deferredIsolatingClassLoader(null, project.provider(() -> {
+      resolutions.incrementAndGet();
+      throw new IllegalStateException("no classpath yet");
+    }));
+    final IllegalStateException ex = assertThrows(IllegalStateException.class, unresolvable::loader);
+    assertEquals("no classpath yet", ex.getMessage());
+    // nothing is remembered from a failed attempt, so the next one resolves the classpath again
+    assertThrows(IllegalStateException.class, unresolvable::loader);
+    assertFalse(unresolvable.isResolved());
+    assertEquals(2, resolutions.get());
+
+    final File broken = Files.write(temp.resolve("broken.jar"), "not a zip".getBytes(StandardCharsets.UTF_8)).toFile();
+    try (final IsolatingClassLoader.Deferred unindexable = IsolatingClassLoader.builder()
+      .classpath(project.provider(() -> Collections.singletonList(broken)))
+      .indexed(true)
+      .buildDeferred()) {
+      assertThrows(UncheckedIOException.class, unindexable::loader);
+      assertFalse(unindexable.isResolved());
+    }
+  }
+
+  @Test
+  void testTrackedLoadersCounted(final @TempDir Path temp) throws IOException {
+    final URL jar = IsolatingClassLoaderTest.jarOf(temp, Isolated.class);
+    final int before = IsolatingClassLoader.liveTrackedLoaders();
+    final URLClassLoader loader = IsolatingClassLoader.builder()
+      .classpath(jar)
+      .indexed(true)
+      .trackLeaks(true)
+      .build();
+    assertEquals(before + 1, IsolatingClassLoader.liveTrackedLoaders());
+    loader.close();
+    assertEquals(before, IsolatingClassLoader.liveTrackedLoaders());
+  }
+
+  @Test
+  void testMultiReleaseVariantSelected(final @TempDir Path temp) throws IOException {
+    final Path jar = temp.resolve("multi-release.jar");
+    final Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    manifest.getMainAttributes().putValue("Multi-Release", "true");
+    try (final OutputStream os = Files.newOutputStream(jar); final JarOutputStream jos = new JarOutputStream(os, manifest)) {
+      jos.putNextEntry(new JarEntry("variant.txt"));
+      jos.write("base".getBytes(StandardCharsets.UTF_8));
+      jos.putNextEntry(new JarEntry("META-INF/versions/9/variant.txt"));
+      jos.write("9".getBytes(StandardCharsets.UTF_8));
+      jos.putNextEntry(new JarEntry("META-INF/versions/" + Integer.MAX_VALUE + "/variant.txt"));
+      jos.write("future".getBytes(StandardCharsets.UTF_8));
+    }
+
+    final boolean versioned = JavaVersions.CURRENT_FEATURE_VERSION >= 9;
+    try (final URLClassLoader loader = IsolatingClassLoader.builder().classpath(jar.toUri().toURL()).indexed(true).collectMetrics(true).build();
+         final InputStream is = loader.getResourceAsStream("variant.txt")) {
+      assertEquals(versioned ? "9" : "base", new String(ClassPathIndex.readFully(is, -1), StandardCharsets.UTF_8));
+      // the selected variant is visible to diagnostics, not only to reads
+      final ClassLoaderMetrics metrics = IsolatingClassLoader.metrics(loader);
+      assertNotNull(metrics);
+      assertEquals(versioned ? 1 : 0, metrics.versionedEntries());
+    }
+
+    try (final ClassPathIndex index = ClassPathIndex.index(new URL[] {jar.toUri().toURL()}, false)) {
+      final ClassPathIndex.Root owner = index.owner("variant.txt");
+      assertNotNull(owner);
+      assertEquals(versioned ? 9 : 0, owner.release("variant.txt"));
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MappedJarRootTest {
+  @Test
+  void testDeflatedEntriesRead(final @TempDir Path dir) throws IOException {
+    final byte[] small = MappedJarRootTest.compressible(1000);
+    final byte[] large = MappedJarRootTest.compressible(MappedJarRoot.MAX_POOLED_SIZE * 3);
+    final Path jar = dir.resolve("test.jar");
+    try (final OutputStream out = Files.newOutputStream(jar); final ZipOutputStream zip = new ZipOutputStream(out)) {
+      zip.putNextEntry(new ZipEntry("small.bin"));
+      zip.write(small);
+      zip.putNextEntry(new ZipEntry("large.bin"));
+      zip.write(large);
+    }
+
+    final MappedJarRoot root = MappedJarRoot.open(jar.toUri().toURL(), jar);
+    assertNotNull(root);
+    try {
+      for (int i = 0; i < 2; i++) {
+        assertArrayEquals(large, root.readEntry("large.bin"));
+        assertArrayEquals(small, root.readEntry("small.bin"));
+        final ByteBuffer buffer = root.bufferEntry("large.bin");
+        final byte[] buffered = new byte[buffer.remaining()];
+        buffer.get(buffered);
+        assertArrayEquals(large, buffered);
+      }
+    } finally {
+      root.close();
+    }
+    assertThrows(IOException.class, () -> root.readEntry("small.bin"));
+  }
+
+  private static byte[] compressible(final int size) {
+    final byte[] data = new byte[size];
+    final Random random = new Random(size);
+    for (int i = 0; i < size; i++) {
+      data[i] = (byte) ('a' + random.nextInt(4));
+    }
+    return data;
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.gradle.api.Project;
+import org.gradle.api.plugins.ExtensionContainer;
+import org.gradle.api.plugins.PluginContainer;
+import org.gradle.api.tasks.TaskContainer;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PluginProfilerServiceTest {
+  private static final Pattern JSON_ENTRY = Pattern.compile("\\{\"plugin\": \"([^\"]+)\", \"target\": \"([^\"]+)\", \"durationMillis\": ([0-9.]+), \"selfMillis\": ([0-9.]+)");
+
+  static class Outer implements ProjectPlugin {
+    @Override
+    public void apply(final @NotNull Project project, final @NotNull PluginContainer plugins, final @NotNull ExtensionContainer extensions, final @NotNull TaskContainer tasks) {
+      plugins.apply(Inner.class);
+      tasks.register("outer");
+      tasks.getByName("outer");
+    }
+  }
+
+  static class Inner implements ProjectPlugin {
+    @Override
+    public void apply(final @NotNull Project project, final @NotNull PluginContainer plugins, final @NotNull ExtensionContainer extensions, final @NotNull TaskContainer tasks) {
+      try {
+        Thread.sleep(50);
+      } catch (final InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      tasks.register("inner");
+    }
+  }
+
+  @Test
+  void testCsvReportExcludesNestedPlugins(final @TempDir Path dir) throws IOException {
+    final List<String> lines = Files.readAllLines(PluginProfilerServiceTest.profile(dir, "csv"), StandardCharsets.UTF_8);
+    assertEquals("plugin,target,durationMillis,selfMillis,tasksRegistered,extensionsRegistered,tasksRealized", lines.get(0));
+    assertEquals(3, lines.size());
+
+    final Map<String, String[]> rows = new HashMap<>();
+    for (final String line : lines.subList(1, lines.size())) {
+      final String[] fields = line.split(",", -1);
+      rows.put(fields[0], fields);
+    }
+    final String[] outer = rows.get(Outer.class.getName());
+    final String[] inner = rows.get(Inner.class.getName());
+    assertNotNull(outer);
+    assertNotNull(inner);
+    // the outer plugin registered its own task and the inner plugin's, but only realized its own
+    assertEquals("2", outer[4]);
+    assertEquals("outer", outer[6]);
+    assertEquals("1", inner[4]);
+    assertEquals("", inner[6]);
+    PluginProfilerServiceTest.assertSelfTimeExcludesNested(
+      Double.parseDouble(outer[2]), Double.parseDouble(outer[3]), Double.parseDouble(inner[2]), Double.parseDouble(inner[3])
+    );
+  }
+
+  @Test
+  void testJsonReportExcludesNestedPlugins(final @TempDir Path dir) throws IOException {
+    final String report = new String(Files.readAllBytes(PluginProfilerServiceTest.profile(dir, "json")), StandardCharsets.UTF_8);
+    assertTrue(report.startsWith("[\n"));
+    assertTrue(report.endsWith("]\n"));
+
+    final Map<String, double[]> entries = new HashMap<>();
+    final Matcher matcher = JSON_ENTRY.matcher(report);
+    while (matcher.find()) {
+      assertEquals(":", matcher.group(2));
+      entries.put(matcher.group(1), new double[] {Double.parseDouble(matcher.group(3)), Double.parseDouble(matcher.group(4))});
+    }
+    assertEquals(2, entries.size());
+    assertTrue(report.contains("\"tasksRealized\": [\"outer\"]"));
+    final double[] outer = entries.get(Outer.class.getName());
+    final double[] inner = entries.get(Inner.class.getName());
+    assertNotNull(outer);
+    assertNotNull(inner);
+    PluginProfilerServiceTest.assertSelfTimeExcludesNested(outer[0], outer[1], inner[0], inner[1]);
+  }
+
+  private static Path profile(final Path dir, final String format) throws IOException {
+    System.setProperty(PluginProfiler.PROPERTY, format);
+    final Project project;
+    try {
+      project = ProjectBuilder.builder().withProjectDir(dir.toFile()).build();
+      project.getPluginManager().apply(Outer.class);
+    } finally {
+      System.clearProperty(PluginProfiler.PROPERTY);
+    }
+
+    // a project builder never finishes its build, so the report is written by closing the service directly
+    final PluginProfilerService service = (PluginProfilerService) project.getGradle().getSharedServices().getRegistrations()
+      .getByName(PluginProfilerService.NAME).getService().get();
+    service.close();
+    final Path report = dir.resolve("build/reports/mammoth/plugin-profile." + format);
+    assertTrue(Files.isRegularFile(report));
+    return report;
+  }
+
+  private static void assertSelfTimeExcludesNested(final double outerDuration, final double outerSelf, final double innerDuration, final double innerSelf) {
+    assertEquals(innerDuration, innerSelf);
+    assertTrue(innerDuration >= 50, () -> "inner plugin took " + innerDuration + "ms");
+    assertTrue(outerDuration >= innerDuration);
+    // durations are rounded to microseconds in the report
+    assertEquals(outerDuration - innerDuration, outerSelf, 0.002);
+  }
+}
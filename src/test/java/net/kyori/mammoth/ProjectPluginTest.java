@@ -23,8 +23,10 @@
  */
 package net.kyori.mammoth;
 
+import java.util.concurrent.atomic.AtomicInteger;
 import org.gradle.api.GradleException;
 import org.gradle.api.Project;
+import org.gradle.api.Task;
 import org.gradle.api.internal.plugins.PluginApplicationException;
 import org.gradle.api.plugins.ExtensionContainer;
 import org.gradle.api.plugins.PluginContainer;
@@ -36,6 +38,7 @@ import org.jetbrains.annotations.Nullable;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -67,6 +70,29 @@ class ProjectPluginTest {
     }
   }
 
+  static class ProjectPluginCounting implements ProjectPlugin {
+    static final AtomicInteger CHECKS = new AtomicInteger();
+
+    @Override
+    public void apply(final @NotNull Project project, final @NotNull PluginContainer plugins, final @NotNull ExtensionContainer extensions, final @NotNull TaskContainer tasks) {
+      // no-op
+    }
+
+    @Override
+    public @Nullable GradleVersion minimumGradleVersion() {
+      ProjectPluginCounting.CHECKS.incrementAndGet();
+      return GradleVersion.version("6.9.0");
+    }
+  }
+
+  static class ProjectPluginEager implements ProjectPlugin {
+    @Override
+    public void apply(final @NotNull Project project, final @NotNull PluginContainer plugins, final @NotNull ExtensionContainer extensions, final @NotNull TaskContainer tasks) {
+      tasks.register("lazy");
+      tasks.withType(Task.class).getByName("lazy");
+    }
+  }
+
   @Test
   void testMinimumVersionMismatch() {
     final GradleException ex = assertThrows(
@@ -78,8 +104,36 @@ class ProjectPluginTest {
     assertTrue(wrapped.getMessage().contains("Your Gradle version is too old"));
   }
 
+  @Test
+  void testMinimumVersionCheckedOncePerClass() {
+    final Project root = ProjectBuilder.builder().build();
+    root.getPluginManager().apply(ProjectPluginCounting.class);
+    ProjectBuilder.builder().withParent(root).build().getPluginManager().apply(ProjectPluginCounting.class);
+    ProjectBuilder.builder().build().getPluginManager().apply(ProjectPluginCounting.class);
+    assertEquals(1, ProjectPluginCounting.CHECKS.get());
+
+    // a failed check is not remembered, so it fails again on the next application
+    assertThrows(PluginApplicationException.class, () -> ProjectBuilder.builder().build().getPluginManager().apply(ProjectPluginFailing.class));
+    assertThrows(PluginApplicationException.class, () -> ProjectBuilder.builder().build().getPluginManager().apply(ProjectPluginFailing.class));
+  }
+
   @Test
   void testMinimumVersionSuccessful() {
     assertDoesNotThrow(() -> ProjectBuilder.builder().build().getPluginManager().apply(ProjectPluginSuccessful.class));
   }
+
+  @Test
+  void testEagerTaskRealizationDetected() {
+    System.setProperty(EagerTaskDetector.PROPERTY, "fail");
+    try {
+      final GradleException ex = assertThrows(
+        PluginApplicationException.class,
+        () -> ProjectBuilder.builder().build().getPluginManager().apply(ProjectPluginEager.class)
+      );
+      final GradleException wrapped = assertInstanceOf(GradleException.class, ex.getCause());
+      assertTrue(wrapped.getMessage().contains("TaskCollection.getByName(\"lazy\")"));
+    } finally {
+      System.clearProperty(EagerTaskDetector.PROPERTY);
+    }
+  }
 }
@@ -0,0 +1,59 @@
+/*
+ * This file is part of mammoth, licensed under the MIT License.
+ *
+ * Copyright (c) 2021-2022 KyoriPowered
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.kyori.mammoth;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.gradle.api.Project;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PropertiesTest {
+  public abstract static class TestExtension {
+    public abstract Property<String> getValue();
+  }
+
+  @Test
+  void testMemoizedComputedOnce() {
+    final Project project = ProjectBuilder.builder().build();
+    final AtomicInteger calls = new AtomicInteger();
+    final Provider<String> memoized = Properties.memoized(project.getProviders(), project.getProviders().provider(() -> "value" + calls.incrementAndGet()));
+    assertEquals("value1", memoized.get());
+    assertEquals("value1", memoized.get());
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  void testFinalizedAll() {
+    final Project project = ProjectBuilder.builder().build();
+    final TestExtension extension = project.getExtensions().create("test", TestExtension.class);
+    extension.getValue().set("a");
+    Properties.finalizedAll(extension);
+    assertThrows(IllegalStateException.class, () -> extension.getValue().set("b"));
+  }
+}